@@ -0,0 +1,16 @@
+package edu.usfca.cs272;
+
+/**
+ * Marks an inverted index that is safe to search from multiple threads at once,
+ * either because it locks around every access like {@link ThreadSafeIndex} or
+ * because it cannot change like {@link MappedIndex}. Classes that search from
+ * multiple threads require an index of this type, so a plain
+ * {@link InvertedIndex} cannot be passed to them by mistake.
+ *
+ * @see MultiThreadQueryParser
+ *
+ * @author Katherine Le
+ *
+ */
+public interface ConcurrentIndex {
+}
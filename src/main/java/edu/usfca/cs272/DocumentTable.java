@@ -0,0 +1,196 @@
+package edu.usfca.cs272;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Assigns dense integer document IDs to locations and stores the word count of
+ * each document in an array indexed by its ID. Lets the inverted index key its
+ * postings by ID instead of repeating the location string for every word.
+ *
+ * @author Katherine Le
+ *
+ */
+public class DocumentTable {
+
+	/** The location of each document, indexed by document ID. */
+	private final ArrayList<String> locations;
+
+	/** The document ID assigned to each location. */
+	private final HashMap<String, Integer> ids;
+
+	/** The word count of each document, indexed by document ID. */
+	private int[] counts;
+
+	/** The number of documents with a word count greater than 0. */
+	private int counted;
+
+	/**
+	 * Initializes an empty document table.
+	 */
+	public DocumentTable() {
+		this.locations = new ArrayList<>();
+		this.ids = new HashMap<>();
+		this.counts = new int[16];
+		this.counted = 0;
+	}
+
+	/**
+	 * Returns the document ID for a location, assigning the next ID if the location
+	 * has not been seen before.
+	 *
+	 * @param location the location to look up
+	 * @return the document ID of the location
+	 */
+	public int register(String location) {
+		Integer id = ids.get(location);
+
+		if (id == null) {
+			id = locations.size();
+			locations.add(location);
+			ids.put(location, id);
+
+			if (id == counts.length) {
+				counts = Arrays.copyOf(counts, counts.length * 2);
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the document ID for a location.
+	 *
+	 * @param location the location to look up
+	 * @return the document ID or -1 if the location has not been registered
+	 */
+	public int getId(String location) {
+		Integer id = ids.get(location);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Returns the location of a document.
+	 *
+	 * @param id the document ID
+	 * @return the location of the document
+	 */
+	public String getLocation(int id) {
+		return locations.get(id);
+	}
+
+	/**
+	 * Returns the word count of a document.
+	 *
+	 * @param id the document ID
+	 * @return the word count of the document
+	 */
+	public int getCount(int id) {
+		return counts[id];
+	}
+
+	/**
+	 * Raises the word count of a document if the provided count is larger.
+	 *
+	 * @param id the document ID
+	 * @param count the new word count
+	 */
+	public void updateCount(int id, int count) {
+		if (count > counts[id]) {
+			if (counts[id] == 0) {
+				counted++;
+			}
+			counts[id] = count;
+		}
+	}
+
+	/**
+	 * Checks if a location has a word count.
+	 *
+	 * @param location the location to check for
+	 * @return true if the location has a word count greater than 0
+	 */
+	public boolean hasCount(String location) {
+		int id = getId(location);
+		return id >= 0 && counts[id] > 0;
+	}
+
+	/**
+	 * Returns the number of documents that have been registered.
+	 *
+	 * @return the number of document IDs assigned
+	 */
+	public int size() {
+		return locations.size();
+	}
+
+	/**
+	 * Returns the number of documents with a word count.
+	 *
+	 * @return the number of documents with a word count greater than 0
+	 */
+	public int numCounts() {
+		return counted;
+	}
+
+	/**
+	 * Writes the number of documents followed by the location and word count of
+	 * each document in ID order.
+	 *
+	 * @param out the output to write to
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(locations.size());
+		for (int id = 0; id < locations.size(); id++) {
+			IndexSnapshot.writeString(out, locations.get(id));
+			out.writeInt(counts[id]);
+		}
+	}
+
+	/**
+	 * Reads a document table written by {@link #write(DataOutput)}.
+	 *
+	 * @param in the input to read from
+	 * @return the document table that was read
+	 * @throws IOException if an I/O error occurs or the input is not a valid table
+	 */
+	public static DocumentTable read(DataInput in) throws IOException {
+		int size = in.readInt();
+		if (size < 0) {
+			throw new IOException("Invalid document table of size " + size);
+		}
+
+		DocumentTable table = new DocumentTable();
+		for (int id = 0; id < size; id++) {
+			String location = IndexSnapshot.readString(in);
+			if (table.register(location) != id) {
+				throw new IOException("Duplicate document location " + location);
+			}
+			table.updateCount(id, in.readInt());
+		}
+		return table;
+	}
+
+	/**
+	 * Returns the word counts as a map sorted by location.
+	 *
+	 * @return an unmodifiable sorted map of location to word count
+	 */
+	public Map<String, Integer> viewCounts() {
+		TreeMap<String, Integer> sorted = new TreeMap<>();
+
+		for (int id = 0; id < locations.size(); id++) {
+			if (counts[id] > 0) {
+				sorted.put(locations.get(id), counts[id]);
+			}
+		}
+		return Collections.unmodifiableMap(sorted);
+	}
+}
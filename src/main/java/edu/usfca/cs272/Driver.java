@@ -4,6 +4,10 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.nio.file.Path;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 /**
  * Class responsible for running this project based on the provided command-line
@@ -15,6 +19,9 @@ import java.nio.file.Path;
  */
 public class Driver {
 
+	/** Logger used for this class. */
+	private static final Logger log = LogManager.getLogger();
+
 	/**
 	 * Initializes the classes necessary based on the provided command-line
 	 * arguments. This includes (but is not limited to) how to build or search an
@@ -32,10 +39,61 @@ public class Driver {
 		int crawls = 1;
 				
 		if (args.length >= 1) {
-			if (parser.hasFlag("-threads") || parser.hasFlag("-crawl") 
+			boolean spilled = parser.hasFlag("-budget") && parser.hasFlag("-text");
+			boolean mapped = parser.hasFlag("-map") || spilled;
+
+			if (mapped) {
+				Path mapPath = parser.getPath("-map", Path.of("index.bin"));
+
+				if (spilled) {
+					mapPath = parser.getPath("-save");
+					Path textPath = parser.getPath("-text");
+
+					if (mapPath == null) {
+						System.out.println("Unable to build with a memory budget without a path to -save the snapshot to.");
+						return;
+					}
+					if (parser.hasFlag("-map") || parser.hasFlag("-load") || parser.hasFlag("-html")) {
+						System.out.println("Unable to build with a memory budget while also using -map, -load, or -html.");
+						return;
+					}
+					if (parser.hasFlag("-threads") || parser.hasFlag("-virtual")) {
+						log.warn("The build with a memory budget runs on one thread; -threads and -virtual only apply to searching.");
+					}
+
+					long budget = parser.getInteger("-budget", SpillingBuilder.DEFAULT_BUDGET) * 1024L * 1024L;
+					try {
+						SpillingBuilder.buildSnapshot(textPath, mapPath, budget);
+					}
+					catch (IOException | NullPointerException e) {
+						System.out.println("Unable to traverse from the path: " + textPath);
+						return;
+					}
+				}
+
+				MappedIndex mappedIndex;
+				try {
+					mappedIndex = new MappedIndex(mapPath);
+				}
+				catch (IOException e) {
+					System.out.println("Unable to map index snapshot from the path: " + mapPath);
+					return;
+				}
+				data = mappedIndex;
+
+				if (parser.hasFlag("-threads") || parser.hasFlag("-virtual") || parser.hasFlag("-server")) {
+					queue = createQueue(parser);
+					query = new MultiThreadQueryParser(mappedIndex, parser.hasFlag("-partial"), queue);
+				}
+				else {
+					queue = null;
+					query = new QueryParser(data, parser.hasFlag("-partial"));
+				}
+				safe = null;
+			}
+			else if (parser.hasFlag("-threads") || parser.hasFlag("-virtual") || parser.hasFlag("-crawl") 
 				|| parser.hasFlag("-html") || parser.hasFlag("-server")) {
-				int threads = parser.getInteger("-threads", 5);
-				queue = threads < 1 ? new WorkQueue() : new WorkQueue(threads);
+				queue = createQueue(parser);
 				safe = new ThreadSafeIndex();
 				query = new MultiThreadQueryParser(safe, parser.hasFlag("-partial"), queue);
 				data = safe;
@@ -48,8 +106,30 @@ public class Driver {
 				safe = null;
 			}
 
-			if (parser.hasFlag("-html")) {
-				WebCrawler crawler = new WebCrawler(crawls, queue);
+			if (parser.hasFlag("-scorer")) {
+				String name = parser.getString("-scorer");
+				Scorer.Model model = Scorer.Model.parse(name, null);
+
+				if (model == null) {
+					System.out.println("Unable to use the scorer: " + name);
+				}
+				else {
+					data.setScorer(model);
+				}
+			}
+
+			if (!mapped && parser.hasFlag("-load")) {
+				Path loadPath = parser.getPath("-load", Path.of("index.bin"));
+				try {
+					data.loadSnapshot(loadPath);
+				}
+				catch (IOException e) {
+					System.out.println("Unable to load index snapshot from the path: " + loadPath);
+				}
+			}
+
+			if (!mapped && parser.hasFlag("-html")) {
+				WebCrawler crawler = new WebCrawler(crawls, queue, parser.getInteger("-fetches", WebCrawler.DEFAULT_FETCHES));
 				String seedURL = parser.getString("-html");
 
 				try {
@@ -60,7 +140,7 @@ public class Driver {
 				}
 			}
 
-			if (parser.hasFlag("-text")) {
+			if (!mapped && parser.hasFlag("-text")) {
 				Path textPath = parser.getPath("-text");
 				try {
 					if (queue != null && safe != null) {
@@ -73,6 +153,22 @@ public class Driver {
 				catch  (IOException | NullPointerException e) {
 					System.out.println("Unable to traverse from the path: " + textPath);
 				}
+				catch (RejectedExecutionException e) {
+					System.out.println("Unable to build from the path while the work queue is full: " + textPath);
+				}
+			}
+
+			log.debug("Stem cache after indexing: {}", StemCache.ENGLISH);
+			data.freeze();
+
+			if (parser.hasFlag("-save")) {
+				Path savePath = parser.getPath("-save", Path.of("index.bin"));
+				try {
+					data.saveSnapshot(savePath);
+				}
+				catch (IOException e) {
+					System.out.println("Unable to save index snapshot to the path: " + savePath);
+				}
 			}
 
 			if (parser.hasFlag("-query")) {
@@ -91,7 +187,7 @@ public class Driver {
 			    int port = parser.getInteger("-server", 8080);
 
 			    try {
-					SearchServer.start(query, port, queue);
+					SearchServer.start(query, port);
 				} catch (Exception e) {
 					System.out.println("Unable to start server on port: " + port);
 
@@ -133,4 +229,23 @@ public class Driver {
 			}
 		}
 	}
+
+	/**
+	 * Creates the work queue described by the command-line arguments: virtual
+	 * threads or a number of worker threads, with an optional capacity and the
+	 * policy for adding tasks once it is full.
+	 *
+	 * @param parser the parsed command-line arguments
+	 * @return the work queue to use
+	 */
+	private static WorkQueue createQueue(CommandLineParser parser) {
+		int threads = parser.getInteger("-threads", WorkQueue.DEFAULT);
+		int capacity = parser.getInteger("-capacity", 0);
+		WorkQueue.Policy policy = WorkQueue.Policy.parse(parser.getString("-policy"), WorkQueue.Policy.BLOCK);
+
+		if (parser.hasFlag("-virtual")) {
+			return WorkQueue.ofVirtual(capacity, policy);
+		}
+		return new WorkQueue(threads < 1 ? WorkQueue.DEFAULT : threads, capacity, policy);
+	}
 }
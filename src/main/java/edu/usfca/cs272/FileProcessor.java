@@ -9,12 +9,11 @@ import java.nio.file.Path;
 import java.text.Normalizer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Locale;
 import java.util.TreeSet;
 import java.util.regex.Pattern;
 
 import opennlp.tools.stemmer.Stemmer;
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
-import opennlp.tools.stemmer.snowball.SnowballStemmer.ALGORITHM;
 
 /**
  * Utility class for parsing, cleaning, and stemming text and text files into
@@ -34,17 +33,87 @@ public class FileProcessor {
 	/**
 	 * Cleans the text by removing any non-alphabetic characters (e.g. non-letters
 	 * like digits, punctuation, symbols, and diacritical marks like the umlaut) and
-	 * converting the remaining characters to lowercase.
+	 * converting the remaining characters to lowercase. Plain ASCII text skips
+	 * normalization and the regular expression since neither would change it.
 	 *
 	 * @param text the text to clean
 	 * @return cleaned text
 	 */
 	public static String clean(String text) {
+		if (isAscii(text) && !isTurkic()) {
+			StringBuilder builder = new StringBuilder(text.length());
+			for (int i = 0; i < text.length(); i++) {
+				char c = text.charAt(i);
+				if (isAsciiLetter(c)) {
+					builder.append(toAsciiLowerCase(c));
+				}
+				else if (isAsciiSpace(c)) {
+					builder.append(c);
+				}
+			}
+			return builder.toString();
+		}
+
 		String cleaned = Normalizer.normalize(text, Normalizer.Form.NFD);
 		cleaned = CLEAN_REGEX.matcher(cleaned).replaceAll("");
 		return cleaned.toLowerCase();
 	}
 
+	/**
+	 * Checks if every character of the text is ASCII.
+	 *
+	 * @param text the text to check
+	 * @return true if the text is plain ASCII
+	 */
+	private static boolean isAscii(String text) {
+		for (int i = 0; i < text.length(); i++) {
+			if (text.charAt(i) >= 0x80) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if the default locale lowercases the ASCII letter I to a dotless i.
+	 *
+	 * @return true if the default locale is Turkish or Azeri
+	 */
+	private static boolean isTurkic() {
+		String language = Locale.getDefault().getLanguage();
+		return language.equals("tr") || language.equals("az");
+	}
+
+	/**
+	 * Checks if an ASCII character is a letter.
+	 *
+	 * @param c the character to check
+	 * @return true if the character is a letter
+	 */
+	private static boolean isAsciiLetter(int c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	/**
+	 * Checks if an ASCII character is whitespace as matched by {@link #SPLIT_REGEX}.
+	 *
+	 * @param c the character to check
+	 * @return true if the character is whitespace
+	 */
+	private static boolean isAsciiSpace(int c) {
+		return c == ' ' || (c >= 0x9 && c <= 0xD);
+	}
+
+	/**
+	 * Lowercases an ASCII letter.
+	 *
+	 * @param c the letter to lowercase
+	 * @return the lowercase letter
+	 */
+	private static char toAsciiLowerCase(char c) {
+		return c <= 'Z' ? (char) (c | 0x20) : c;
+	}
+
 	/**
 	 * Splits the supplied text by whitespaces.
 	 *
@@ -65,7 +134,26 @@ public class FileProcessor {
 	 * @see #parse(String)
 	 */
 	public static String[] parse(String text) {
-		return split(clean(text));
+		return parse(text, new Tokenizer());
+	}
+
+	/**
+	 * Parses the text into an array of clean words using a tokenizer that can be
+	 * reused for other text afterwards.
+	 *
+	 * @param text the text to clean and split
+	 * @param tokenizer the tokenizer to split the text with
+	 * @return an array of {@link String} objects
+	 *
+	 * @see #parse(String)
+	 */
+	public static String[] parse(String text, Tokenizer tokenizer) {
+		ArrayList<String> words = new ArrayList<>();
+		tokenizer.reset(text);
+		while (tokenizer.next()) {
+			words.add(tokenizer.word().toString());
+		}
+		return words.toArray(new String[0]);
 	}
 
 	/**
@@ -81,9 +169,24 @@ public class FileProcessor {
 	 * @see Collection#add(Object)
 	 */
 	public static void addStems(String line, Stemmer stemmer, Collection<String> stems) {
-		String[] parsed = parse(line);
-		for(String word: parsed) {
-			stems.add(stemmer.stem(word).toString());
+		addStems(line, stemmer, stems, new Tokenizer());
+	}
+
+	/**
+	 * Parses the line into cleaned and stemmed words using a tokenizer that can be
+	 * reused for other lines afterwards, and adds them to the provided collection.
+	 *
+	 * @param line the line of words to clean, split, and stem
+	 * @param stemmer the stemmer to use
+	 * @param stems the collection to add stems
+	 * @param tokenizer the tokenizer to split the line with
+	 *
+	 * @see #addStems(String, Stemmer, Collection)
+	 */
+	public static void addStems(String line, Stemmer stemmer, Collection<String> stems, Tokenizer tokenizer) {
+		tokenizer.reset(line);
+		while (tokenizer.next()) {
+			stems.add(stemmer.stem(tokenizer.word()).toString());
 		}
 	}
 
@@ -111,13 +214,11 @@ public class FileProcessor {
 	 * @param line the line of words to parse and stem
 	 * @return a list of cleaned and stemmed words in parsed order
 	 *
-	 * @see SnowballStemmer#SnowballStemmer(ALGORITHM)
-	 * @see ALGORITHM#ENGLISH
+	 * @see StemCache#ENGLISH
 	 * @see #listStems(String, Stemmer)
 	 */
 	public static ArrayList<String> listStems(String line) {
-		SnowballStemmer stemmer = new SnowballStemmer(SnowballStemmer.ALGORITHM.ENGLISH);
-		return listStems(line, stemmer);
+		return listStems(line, StemCache.ENGLISH);
 	}
 
 	/**
@@ -128,18 +229,17 @@ public class FileProcessor {
 	 * @return a list of stems from file in parsed order
 	 *  @throws IOException if an I/O error occurs
 	 *
-	 * @see SnowballStemmer
-	 * @see ALGORITHM#ENGLISH
+	 * @see StemCache#ENGLISH
 	 * @see StandardCharsets#UTF_8
 	 * @see #listStems(String, Stemmer)
 	 */
 	public static ArrayList<String> listStems(Path input) throws IOException{
 		ArrayList<String> list = new ArrayList<>();
+		Tokenizer tokenizer = new Tokenizer();
 		try (BufferedReader buffer = Files.newBufferedReader(input, UTF_8)){
-			SnowballStemmer stemmer = new SnowballStemmer(SnowballStemmer.ALGORITHM.ENGLISH);
 			String curLine;
 			while ((curLine = buffer.readLine()) != null){
-				addStems(curLine, stemmer, list);
+				addStems(curLine, StemCache.ENGLISH, list, tokenizer);
 			}
 		}
 		return list;
@@ -169,13 +269,11 @@ public class FileProcessor {
 	 * @param line the line of words to parse and stem
 	 * @return a sorted set of unique cleaned and stemmed words
 	 *
-	 * @see SnowballStemmer#SnowballStemmer(ALGORITHM)
-	 * @see ALGORITHM#ENGLISH
+	 * @see StemCache#ENGLISH
 	 * @see #uniqueStems(String, Stemmer)
 	 */
 	public static TreeSet<String> uniqueStems(String line) {
-		SnowballStemmer stemmer = new SnowballStemmer(SnowballStemmer.ALGORITHM.ENGLISH);
-		return uniqueStems(line, stemmer);
+		return uniqueStems(line, StemCache.ENGLISH);
 	}
 
 	/**
@@ -186,17 +284,16 @@ public class FileProcessor {
 	 * @return a sorted set of unique cleaned and stemmed words from file
 	 * @throws IOException if unable to read or parse file
 	 *
-	 * @see SnowballStemmer
-	 * @see ALGORITHM#ENGLISH
+	 * @see StemCache#ENGLISH
 	 * @see StandardCharsets#UTF_8
 	 */
 	public static TreeSet<String> uniqueStems(Path input) throws IOException {
 		TreeSet<String> list = new TreeSet<>();
+		Tokenizer tokenizer = new Tokenizer();
 		try (BufferedReader buffer = Files.newBufferedReader(input, UTF_8)){
-			SnowballStemmer stemmer = new SnowballStemmer(SnowballStemmer.ALGORITHM.ENGLISH);
 			String curLine;
 			while ((curLine = buffer.readLine()) != null){
-				addStems(curLine, stemmer, list);
+				addStems(curLine, StemCache.ENGLISH, list, tokenizer);
 			}
 		}
 		return list;
@@ -212,20 +309,199 @@ public class FileProcessor {
 	 *   a single line of the input file
 	 * @throws IOException if unable to read or parse file
 	 *
-	 * @see SnowballStemmer
-	 * @see ALGORITHM#ENGLISH
+	 * @see StemCache#ENGLISH
 	 * @see StandardCharsets#UTF_8
 	 * @see #uniqueStems(String, Stemmer)
 	 */
 	public static ArrayList<TreeSet<String>> listUniqueStems(Path input) throws IOException {
 		ArrayList<TreeSet<String>> list = new ArrayList<>();
+		Tokenizer tokenizer = new Tokenizer();
 		try (BufferedReader buffer = Files.newBufferedReader(input, UTF_8)){
-			SnowballStemmer stemmer = new SnowballStemmer(SnowballStemmer.ALGORITHM.ENGLISH);
 			String curLine;
 			while ((curLine = buffer.readLine()) != null){
-				list.add(uniqueStems(curLine, stemmer));
+				TreeSet<String> unique = new TreeSet<>();
+				addStems(curLine, StemCache.ENGLISH, unique, tokenizer);
+				list.add(unique);
 			}
 		}
 		return list;
 	}
+
+	/**
+	 * Splits text into the same clean words as {@link #split(String)} of
+	 * {@link #clean(String)} in a single pass over the characters. Each word is
+	 * written into a buffer that is reused for the next word, so words should be
+	 * copied or stemmed before moving on. A tokenizer can be reused for many
+	 * lines but is not safe to share between threads.
+	 *
+	 * @see #parse(String)
+	 */
+	public static class Tokenizer {
+
+		/** The normalized text being split. */
+		private String text;
+
+		/** The index of the next character to read from the text. */
+		private int index;
+
+		/** Whether the text is plain ASCII, which needs no Unicode character classes. */
+		private boolean ascii;
+
+		/** The buffer holding the current word. */
+		private final StringBuilder word;
+
+		/**
+		 * Whether an empty word comes before the first word, which happens when the
+		 * clean text starts with whitespace that {@link String#strip()} keeps.
+		 */
+		private boolean leadingEmpty;
+
+		/**
+		 * The words split the slow way, for text whose lowercase depends on more than
+		 * one character at a time, or null if the text is split in one pass.
+		 */
+		private String[] fallback;
+
+		/**
+		 * Initializes a tokenizer with no text.
+		 */
+		public Tokenizer() {
+			this.text = "";
+			this.index = 0;
+			this.ascii = true;
+			this.word = new StringBuilder();
+			this.leadingEmpty = false;
+			this.fallback = null;
+		}
+
+		/**
+		 * Starts splitting new text.
+		 *
+		 * @param text the text to split
+		 */
+		public void reset(String text) {
+			this.index = 0;
+			this.word.setLength(0);
+			this.leadingEmpty = false;
+			this.fallback = null;
+
+			// a final sigma and a few locales lowercase using the letters around them
+			String language = Locale.getDefault().getLanguage();
+			boolean turkic = isTurkic();
+			this.ascii = !turkic && isAscii(text);
+			if (this.ascii) {
+				this.text = text;
+				return;
+			}
+
+			this.text = Normalizer.normalize(text, Normalizer.Form.NFD);
+			if (this.text.indexOf('\u03A3') >= 0 || turkic || language.equals("lt")) {
+				this.fallback = split(clean(text));
+				return;
+			}
+
+			for (int i = 0; i < this.text.length(); ) {
+				int c = this.text.codePointAt(i);
+				if (isSpace(c) && !Character.isWhitespace(c)) {
+					this.leadingEmpty = true;
+					break;
+				}
+				if (Character.isAlphabetic(c)) {
+					break;
+				}
+				i += Character.charCount(c);
+			}
+		}
+
+		/**
+		 * Moves to the next word.
+		 *
+		 * @return true if there is another word, false if the text is used up
+		 */
+		public boolean next() {
+			word.setLength(0);
+
+			if (fallback != null) {
+				if (index >= fallback.length) {
+					return false;
+				}
+				word.append(fallback[index++]);
+				return true;
+			}
+
+			int start = -1;
+			if (ascii) {
+				while (index < text.length()) {
+					char c = text.charAt(index);
+
+					if (isAsciiLetter(c)) {
+						if (start < 0) {
+							start = index;
+						}
+						word.append(toAsciiLowerCase(c));
+					}
+					else if (isAsciiSpace(c) && start >= 0) {
+						break;
+					}
+					index++;
+				}
+				return start >= 0;
+			}
+
+			while (index < text.length()) {
+				int c = text.codePointAt(index);
+
+				if (isSpace(c)) {
+					if (start >= 0) {
+						break;
+					}
+				}
+				else if (Character.isAlphabetic(c)) {
+					if (start < 0) {
+						start = index;
+					}
+					if (c == '\u0130') {
+						word.append("i\u0307");
+					}
+					else {
+						word.appendCodePoint(Character.toLowerCase(c));
+					}
+				}
+				index += Character.charCount(c);
+			}
+
+			if (start < 0) {
+				return false;
+			}
+
+			if (leadingEmpty) {
+				leadingEmpty = false;
+				index = start;
+				word.setLength(0);
+			}
+			return true;
+		}
+
+		/**
+		 * Returns the current word, which is only valid until the next call to
+		 * {@link #next()} or {@link #reset(String)}.
+		 *
+		 * @return the current word
+		 */
+		public CharSequence word() {
+			return word;
+		}
+
+		/**
+		 * Checks if a character is whitespace as matched by {@link FileProcessor#SPLIT_REGEX}.
+		 *
+		 * @param c the character to check
+		 * @return true if the character is whitespace
+		 */
+		private static boolean isSpace(int c) {
+			int type = Character.getType(c);
+			return type == Character.SPACE_SEPARATOR || type == Character.LINE_SEPARATOR
+					|| type == Character.PARAGRAPH_SEPARATOR || (c >= 0x9 && c <= 0xD) || c == 0x85;
+		}
+	}
 }
@@ -0,0 +1,412 @@
+package edu.usfca.cs272;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Saves and loads an inverted index as a compact binary snapshot, so that a
+ * server can start from a previously built index instead of traversing or
+ * crawling again. A snapshot contains a header, the document table, the number
+ * of words and postings, and then every word in sorted order followed by its
+ * postings. All values are written
+ * sequentially and read back through a buffered stream.
+ *
+ * <p>
+ * The words are followed by a table with the file offset of each word and,
+ * as the last 8 bytes of the file, the offset of that table. The table lets a
+ * {@link MappedIndex} find words directly in the mapped file without reading
+ * the whole snapshot first.
+ *
+ * @author Katherine Le
+ *
+ */
+public class IndexSnapshot {
+
+	/** The magic number at the start of every snapshot file. */
+	public static final int MAGIC = 0x53454958;
+
+	/** The version of the snapshot format. */
+	public static final int VERSION = 3;
+
+	/** The buffer size used for reading and writing snapshots. */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Writes the document table and postings of an index to a snapshot file.
+	 *
+	 * @param documents the document table of the index
+	 * @param words the words of the index in sorted order
+	 * @param postings the postings of each word, in the same order as the words
+	 * @param path the path to write to
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static void write(DocumentTable documents, List<String> words, List<PostingsList> postings, Path path) throws IOException {
+		try (Writer writer = new Writer(documents, path)) {
+			int i = 0;
+			for (String word : words) {
+				writer.add(word, postings.get(i++));
+			}
+			writer.finish();
+		}
+	}
+
+	/**
+	 * Reads a snapshot file into a new inverted index.
+	 *
+	 * @param path the path to read from
+	 * @return the inverted index stored in the snapshot
+	 * @throws IOException if an I/O error occurs or the file is not a valid snapshot
+	 */
+	public static InvertedIndex read(Path path) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+			readHeader(in, path);
+			DocumentTable documents = DocumentTable.read(in);
+
+			int words = in.readInt();
+			in.readLong();
+			TreeMap<String, PostingsList> index = new TreeMap<>();
+
+			for (int i = 0; i < words; i++) {
+				index.put(readString(in), PostingsList.read(in));
+			}
+			return new InvertedIndex(documents, index);
+		}
+	}
+
+	/**
+	 * Reads and checks the magic number and version of a snapshot.
+	 *
+	 * @param in the input to read from
+	 * @param path the path being read, used for error messages
+	 * @throws IOException if an I/O error occurs or the header does not match
+	 */
+	public static void readHeader(DataInput in, Path path) throws IOException {
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not an index snapshot: " + path);
+		}
+
+		int version = in.readInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported index snapshot version " + version + ": " + path);
+		}
+	}
+
+	/**
+	 * Writes a string as its length in bytes followed by its UTF-8 bytes.
+	 *
+	 * @param out the output to write to
+	 * @param text the string to write
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static void writeString(DataOutput out, String text) throws IOException {
+		byte[] bytes = text.getBytes(UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(DataOutput, String)}.
+	 *
+	 * @param in the input to read from
+	 * @return the string that was read
+	 * @throws IOException if an I/O error occurs or the length is invalid
+	 */
+	public static String readString(DataInput in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			throw new IOException("Invalid string length " + length);
+		}
+
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	/**
+	 * Writes a snapshot one word at a time, so the words and postings do not all
+	 * need to be in memory at once. Only the offset of each word is kept until the
+	 * snapshot is finished. Since the number of words and postings is not known up
+	 * front, they are filled in by {@link #finish()}. A writer closed without being finished, such
+	 * as when adding a word throws, deletes its file so a partial snapshot is never
+	 * left behind looking valid.
+	 */
+	public static class Writer implements AutoCloseable {
+
+		/** The path being written. */
+		private final Path path;
+
+		/** The stream counting the bytes written. */
+		private final CountingOutputStream counter;
+
+		/** The output to write to. */
+		private final DataOutputStream out;
+
+		/** The offset of the number of words, which is followed by the number of postings. */
+		private final long countOffset;
+
+		/** The offset of each word added so far. */
+		private long[] offsets;
+
+		/** The number of words added so far. */
+		private int words;
+
+		/** The number of postings added so far. */
+		private long postingCount;
+
+		/** The last word added, used to make sure the words are sorted. */
+		private String last;
+
+		/** Whether the offset table and number of words have been written. */
+		private boolean finished;
+
+		/**
+		 * Starts a snapshot by writing its header and document table.
+		 *
+		 * @param documents the document table of the index
+		 * @param path the path to write to
+		 * @throws IOException if an I/O error occurs
+		 */
+		public Writer(DocumentTable documents, Path path) throws IOException {
+			this.path = path;
+			this.counter = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE));
+			this.out = new DataOutputStream(counter);
+			this.offsets = new long[16];
+			this.words = 0;
+			this.postingCount = 0;
+			this.last = null;
+			this.finished = false;
+
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				documents.write(out);
+
+				this.countOffset = counter.count;
+				out.writeInt(0);
+				out.writeLong(0);
+			}
+			catch (IOException e) {
+				out.close();
+				Files.deleteIfExists(path);
+				throw e;
+			}
+		}
+
+		/**
+		 * Adds a word and its postings. Words must be added in sorted order.
+		 *
+		 * @param word the word to add
+		 * @param postings the postings of the word
+		 * @throws IOException if an I/O error occurs
+		 * @throws IllegalArgumentException if the word does not come after the last word added
+		 * @throws IllegalStateException if the snapshot is already finished
+		 */
+		public void add(String word, PostingsList postings) throws IOException {
+			if (finished) {
+				throw new IllegalStateException("Snapshot " + path + " is already finished");
+			}
+
+			if (last != null && word.compareTo(last) <= 0) {
+				throw new IllegalArgumentException("Word " + word + " is not after " + last);
+			}
+
+			if (words == offsets.length) {
+				offsets = Arrays.copyOf(offsets, offsets.length * 2);
+			}
+
+			offsets[words++] = counter.count;
+			postingCount += postings.size();
+			last = word;
+			writeString(out, word);
+			postings.write(out);
+		}
+
+		/**
+		 * Writes the table of word offsets and fills in the number of words and
+		 * postings. Must be called after the last word is added for the snapshot to
+		 * be kept.
+		 *
+		 * @throws IOException if an I/O error occurs
+		 */
+		public void finish() throws IOException {
+			if (finished) {
+				return;
+			}
+
+			long table = counter.count;
+			for (int i = 0; i < words; i++) {
+				out.writeLong(offsets[i]);
+			}
+			out.writeLong(table);
+			out.flush();
+
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+				channel.write(ByteBuffer.allocate(Integer.BYTES + Long.BYTES).putInt(0, words).putLong(Integer.BYTES, postingCount), countOffset);
+			}
+			finished = true;
+		}
+
+		/**
+		 * Closes the snapshot file, deleting it if the snapshot was not finished.
+		 *
+		 * @throws IOException if an I/O error occurs
+		 */
+		@Override
+		public void close() throws IOException {
+			try {
+				out.close();
+			}
+			finally {
+				if (!finished) {
+					Files.deleteIfExists(path);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a snapshot one word at a time, in sorted order, without loading the
+	 * rest of the snapshot into memory.
+	 */
+	public static class Reader implements AutoCloseable {
+
+		/** The input to read from. */
+		private final DataInputStream in;
+
+		/** The document table of the snapshot. */
+		private final DocumentTable documents;
+
+		/** The number of words not read yet. */
+		private int remaining;
+
+		/** The current word, or null before the first word or after the last. */
+		private String word;
+
+		/** The postings of the current word. */
+		private PostingsList postings;
+
+		/**
+		 * Opens a snapshot and reads its header and document table.
+		 *
+		 * @param path the path to read from
+		 * @throws IOException if an I/O error occurs or the file is not a valid snapshot
+		 */
+		public Reader(Path path) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE));
+
+			try {
+				readHeader(in, path);
+				this.documents = DocumentTable.read(in);
+				this.remaining = in.readInt();
+				in.readLong();
+			}
+			catch (IOException e) {
+				in.close();
+				throw e;
+			}
+
+			this.word = null;
+			this.postings = null;
+		}
+
+		/**
+		 * Returns the document table of the snapshot.
+		 *
+		 * @return the document table
+		 */
+		public DocumentTable getDocuments() {
+			return documents;
+		}
+
+		/**
+		 * Moves to the next word.
+		 *
+		 * @return true if there is another word, false if every word has been read
+		 * @throws IOException if an I/O error occurs or the snapshot is not valid
+		 */
+		public boolean next() throws IOException {
+			if (remaining <= 0) {
+				word = null;
+				postings = null;
+				return false;
+			}
+
+			remaining--;
+			word = readString(in);
+			postings = PostingsList.read(in);
+			return true;
+		}
+
+		/**
+		 * Returns the current word.
+		 *
+		 * @return the current word, or null if there is none
+		 */
+		public String word() {
+			return word;
+		}
+
+		/**
+		 * Returns the postings of the current word.
+		 *
+		 * @return the postings of the current word, or null if there is none
+		 */
+		public PostingsList postings() {
+			return postings;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/**
+	 * Counts the bytes written so that the offset of each word can be recorded.
+	 * Unlike {@link DataOutputStream#size()}, the count does not overflow at 2 GB.
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+
+		/** The number of bytes written so far. */
+		private long count;
+
+		/**
+		 * Initializes a counting stream.
+		 *
+		 * @param out the stream to write to
+		 */
+		public CountingOutputStream(OutputStream out) {
+			super(out);
+			this.count = 0;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+}
@@ -4,14 +4,15 @@ import java.io.IOException;
 import java.io.Writer;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.StringJoiner;
 import java.util.TreeMap;
-import java.util.TreeSet;
 
 /**
  * Data structure class for storing stem counts and an inverted index
@@ -21,22 +22,99 @@ import java.util.TreeSet;
  */
 public class InvertedIndex {
 	/**
-	 * Initializes the tree map used to store stem counts
+	 * Initializes the table of document IDs used to store stem counts
 	 */
-	private final TreeMap<String, Integer> counts;
+	private final DocumentTable documents;
 
 	/**
-	 * Initializes the tree map used to store an inverted index
+	 * Initializes the tree map used to store an inverted index. Each word maps to its
+	 * postings, which are keyed by document ID and hold compressed position lists.
 	 */
-	private final TreeMap<String, TreeMap<String, TreeSet<Integer>>> index;
+	private final TreeMap<String, PostingsList> index;
 
+	/**
+	 * The frozen dictionary that replaces the tree map once the index is frozen, or
+	 * null while the index is still being changed.
+	 */
+	private TermDictionary dictionary;
+
+	/** The scoring model used to rank search results. */
+	private Scorer.Model model;
+
+	/**
+	 * The scorer for the current documents, or null if the documents have changed
+	 * since it was created.
+	 */
+	private volatile Scorer scorer;
+
+	/** The number of times the index has changed, used to tell if cached search results are stale. */
+	private long generation;
+
+	/** The number of (word, document) pairs in the index. */
+	private long postingCount;
 
 	/**
 	 * Constructor that initializes the counts, inverted index, and search results maps
 	 */
 	public InvertedIndex() {
-		this.counts = new TreeMap<>();
-		this.index = new TreeMap<>();
+		this(new DocumentTable(), new TreeMap<>());
+	}
+
+	/**
+	 * Constructor that initializes the index from an existing document table and postings.
+	 *
+	 * @param documents the table of document IDs and counts
+	 * @param index the postings of each word
+	 */
+	InvertedIndex(DocumentTable documents, TreeMap<String, PostingsList> index) {
+		this.documents = documents;
+		this.index = index;
+		this.dictionary = null;
+		this.model = Scorer.Model.COUNT;
+		this.scorer = null;
+		this.generation = 0;
+		this.postingCount = 0;
+
+		for (PostingsList postings : index.values()) {
+			this.postingCount += postings.size();
+		}
+	}
+
+	/**
+	 * Selects the scoring model used to rank search results.
+	 *
+	 * @param model the scoring model to use
+	 */
+	public void setScorer(Scorer.Model model) {
+		this.model = model;
+		this.scorer = null;
+		this.generation++;
+	}
+
+	/**
+	 * Returns the generation of the index, which changes whenever a word is added
+	 * or the scoring model is changed, so search results from an older generation
+	 * may be stale.
+	 *
+	 * @return the generation of the index
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Returns the scorer for the current documents, creating it if the documents
+	 * have changed since it was last created.
+	 *
+	 * @return the scorer
+	 */
+	private Scorer getScorer() {
+		Scorer current = scorer;
+		if (current == null) {
+			current = model.create(documents);
+			scorer = current;
+		}
+		return current;
 	}
 
 	/**
@@ -46,7 +124,7 @@ public class InvertedIndex {
 	 * @throws IOException if an IO error occurs
 	 */
 	public void countsToJson(Path path) throws IOException {
-		JsonWriter.writeObject(counts, path);
+		JsonWriter.writeObject(documents.viewCounts(), path);
 	}
 
 	/**
@@ -56,7 +134,77 @@ public class InvertedIndex {
 	 * @throws IOException if an IO error occurs
 	 */
 	public void indexToJson(Path path) throws IOException {
-		JsonWriter.writeInvertedIndex(index, path);
+		JsonWriter.writeInvertedIndex(viewEntries(), path);
+	}
+
+	/**
+	 * Writes the inverted index and counts to a binary snapshot file.
+	 *
+	 * @param path the path to write the snapshot to
+	 * @throws IOException if an IO error occurs
+	 *
+	 * @see IndexSnapshot
+	 */
+	public void saveSnapshot(Path path) throws IOException {
+		if (dictionary != null) {
+			IndexSnapshot.write(documents, dictionary.viewWords(), dictionary.getPostings(0, dictionary.size()), path);
+		}
+		else {
+			IndexSnapshot.write(documents, new ArrayList<>(index.keySet()), new ArrayList<>(index.values()), path);
+		}
+	}
+
+	/**
+	 * Reads a binary snapshot file and adds its words and counts into the inverted index.
+	 *
+	 * @param path the path to read the snapshot from
+	 * @throws IOException if an IO error occurs or the file is not a valid snapshot
+	 *
+	 * @see IndexSnapshot
+	 * @see #addAll(InvertedIndex)
+	 */
+	public void loadSnapshot(Path path) throws IOException {
+		addAll(IndexSnapshot.read(path));
+	}
+
+	/**
+	 * Freezes the index for searching. The words are moved from the tree map into a
+	 * compact sorted {@link TermDictionary}, where the words sharing a prefix form a
+	 * contiguous range, and the postings are trimmed to size. The document norms of
+	 * the scorer and the score bounds of the postings are computed ahead of searching. The index can still be changed afterwards,
+	 * but the first change will move the words back into a tree map.
+	 */
+	public void freeze() {
+		if (dictionary == null) {
+			Scorer current = getScorer();
+			for (PostingsList postings : index.values()) {
+				postings.trimToSize();
+				postings.getBound(current);
+			}
+			dictionary = new TermDictionary(index);
+			index.clear();
+		}
+	}
+
+	/**
+	 * Moves the words of a frozen index back into the tree map so they can be changed,
+	 * forgets the scorer since the document word counts may change, and starts a
+	 * new generation.
+	 */
+	private void thaw() {
+		generation++;
+
+		if (scorer != null) {
+			scorer = null;
+		}
+
+		if (dictionary != null) {
+			int id = 0;
+			for (String word : dictionary.viewWords()) {
+				index.put(word, dictionary.getPostings(id++));
+			}
+			dictionary = null;
+		}
 	}
 
 	/**
@@ -65,7 +213,7 @@ public class InvertedIndex {
 	 * @return the map of counts
 	 */
 	public Map<String, Integer> getCounts() {
-		return Collections.unmodifiableMap(counts);
+		return documents.viewCounts();
 	}
 
 	/**
@@ -76,13 +224,28 @@ public class InvertedIndex {
 	 * @param position the position in the file where the stem was found
 	 */
 	public void add(String word, String location, int position) {
-		index.putIfAbsent(word, new TreeMap<>());
-		index.get(word).putIfAbsent(location, new TreeSet<>());
-		index.get(word).get(location).add(position);
+		add(word, documents.register(location), position);
+	}
 
-		if (position > counts.getOrDefault(location, 0)) {
-			counts.put(location, position);
+	/**
+	 * Adds a stem to the postings of a document and updates the count of the document.
+	 *
+	 * @param word the word to add
+	 * @param document the ID of the document the stem was found in
+	 * @param position the position in the document where the stem was found
+	 */
+	private void add(String word, int document, int position) {
+		thaw();
+		var postings = index.get(word);
+		if (postings == null) {
+			postings = new PostingsList();
+			index.put(word, postings);
 		}
+
+		int size = postings.size();
+		postings.getOrCreate(document).append(position);
+		postingCount += postings.size() - size;
+		documents.updateCount(document, position);
 	}
 
 	/**
@@ -93,8 +256,9 @@ public class InvertedIndex {
 	 * @param position the position in the file the stem is found in
 	 */
 	public void addAll(List<String> words, String location, int position) {
+		int document = documents.register(location);
 		for(String word : words) {
-			add(word, location, position++);
+			add(word, document, position++);
 		}
 	}
 
@@ -109,46 +273,42 @@ public class InvertedIndex {
 	}
 
 	/**
-	 * Adds all of the local inverted index into the inverted index.
+	 * Adds all of the local inverted index into the inverted index. The document IDs
+	 * of the local index are translated into document IDs of this index.
 	 *
 	 * @param local the inverted index to add
 	 */
 	public void addAll(InvertedIndex local) {
-		for (var wordEntry : local.index.entrySet()) {
-			String localWord = wordEntry.getKey();
-			var localLocations = wordEntry.getValue();
-			var thisLocations = this.index.get(localWord);
+		addAll(local, 0);
+	}
 
-			if (thisLocations == null) {
-				this.index.put(localWord, localLocations);
-			}
-			else {
-				for (var locationEntry : localLocations.entrySet()) {
-					String localLocation = locationEntry.getKey();
-					var localPositions = locationEntry.getValue();
+	/**
+	 * Adds all of the local inverted index into the inverted index with every
+	 * position shifted by an offset, such as for a local index built from a later
+	 * part of a file. The word counts of the local documents are shifted the same way.
+	 *
+	 * @param local the inverted index to add
+	 * @param offset the number of words that come before the local index in each of its documents
+	 */
+	public void addAll(InvertedIndex local, int offset) {
+		thaw();
+		int[] mapping = new int[local.documents.size()];
 
-					if (!thisLocations.containsKey(localLocation)) {
-						thisLocations.put(localLocation, localPositions);
-					}
-					else {
-						thisLocations.get(localLocation).addAll(localPositions);
-					}
-				}
-			}
+		for (int id = 0; id < mapping.length; id++) {
+			mapping[id] = this.documents.register(local.documents.getLocation(id));
+			this.documents.updateCount(mapping[id], local.documents.getCount(id) + offset);
 		}
-		for (var countEntry : local.counts.entrySet()) {
-			String localLocation = countEntry.getKey();
-			var localCount = countEntry.getValue();
-			var thisCount = this.counts.get(localLocation);
 
-			if (thisCount == null) {
-				this.counts.put(localLocation, localCount);
-			}
-			else {
-				if (localCount > thisCount) {
-					this.counts.put(localLocation, localCount);
-				}
+		for (String localWord : local.viewWords()) {
+			var thisPostings = this.index.get(localWord);
+
+			if (thisPostings == null) {
+				thisPostings = new PostingsList();
+				this.index.put(localWord, thisPostings);
 			}
+			int size = thisPostings.size();
+			thisPostings.addAll(local.getPostings(localWord), mapping, offset);
+			postingCount += thisPostings.size() - size;
 		}
 	}
 
@@ -159,7 +319,7 @@ public class InvertedIndex {
 	 * @return true is the map contains the stem and false if it doesn't exist
 	 */
 	public boolean hasWord(String word) {
-		return index.containsKey(word);
+		return dictionary != null ? dictionary.find(word) >= 0 : index.containsKey(word);
 	}
 
 	/**
@@ -170,7 +330,7 @@ public class InvertedIndex {
 	 * @return true if the index has the location for that word
 	 */
 	public boolean hasLocation(String word, String location) {
-		return hasWord(word) && index.get(word).containsKey(location);
+		return getPositions(word, location) != null;
 	}
 
 	/**
@@ -180,7 +340,7 @@ public class InvertedIndex {
 	 * @return true if the location is found in counts
 	 */
 	public boolean hasLocation(String location) {
-		return counts.containsKey(location);
+		return documents.hasCount(location);
 	}
 
 	/**
@@ -192,7 +352,8 @@ public class InvertedIndex {
 	 * @return true if the position of the word is found in the file
 	 */
 	public boolean hasPosition(String word, String location, int position) {
-		return hasLocation(word, location) && index.get(word).get(location).contains(position);
+		var positions = getPositions(word, location);
+		return positions != null && positions.contains(position);
 	}
 
 	/**
@@ -201,7 +362,17 @@ public class InvertedIndex {
 	 * @return the number of words in the index
 	 */
 	public int numWords() {
-		return index.size();
+		return dictionary != null ? dictionary.size() : index.size();
+	}
+
+	/**
+	 * Returns the number of postings in the inverted index, which is the number of
+	 * distinct pairs of a word and a location it is found in.
+	 *
+	 * @return the number of postings in the index
+	 */
+	public long numPostings() {
+		return postingCount;
 	}
 
 	/**
@@ -211,7 +382,8 @@ public class InvertedIndex {
 	 * @return a number for the amount of locations in the index
 	 */
 	public int numLocations(String word) {
-		return hasWord(word) ? index.get(word).size() : 0;
+		var postings = getPostings(word);
+		return postings != null ? postings.size() : 0;
 	}
 
 	/**
@@ -220,7 +392,7 @@ public class InvertedIndex {
 	 * @return a number for the total amount of locations
 	 */
 	public int numLocations() {
-		return counts.size();
+		return documents.numCounts();
 	}
 
 	/**
@@ -231,7 +403,8 @@ public class InvertedIndex {
 	 * @return a number for the total amount of positions in the location
 	 */
 	public int numPositions(String word, String location) {
-		return hasLocation(word, location) ? index.get(word).get(location).size() : 0;
+		var positions = getPositions(word, location);
+		return positions != null ? positions.size() : 0;
 	}
 
 	/**
@@ -242,7 +415,8 @@ public class InvertedIndex {
 	 * @return an unmodifiable collection of the positions of the word
 	 */
 	public Set<Integer> viewPositions(String word, String location) {
-		return hasLocation(word, location) ? Collections.unmodifiableSet(index.get(word).get(location)) : Collections.emptySet();
+		var positions = getPositions(word, location);
+		return positions != null ? Collections.unmodifiableSet(positions) : Collections.emptySet();
 	}
 
 	/**
@@ -252,7 +426,8 @@ public class InvertedIndex {
 	 * @return the unmodifiable set of locations for a word
 	 */
 	public Collection<String> viewLocations(String word) {
-		return hasWord(word) ? Collections.unmodifiableCollection(index.get(word).keySet()) : Collections.emptyList();
+		var postings = getPostings(word);
+		return postings != null ? Collections.unmodifiableCollection(mapLocations(postings).keySet()) : Collections.emptyList();
 	}
 
 	/**
@@ -261,7 +436,7 @@ public class InvertedIndex {
 	 * @return an unmodifiable collection words in the index
 	 */
 	public Collection<String> viewWords() {
-		return Collections.unmodifiableCollection(index.keySet());
+		return dictionary != null ? dictionary.viewWords() : Collections.unmodifiableCollection(index.keySet());
 	}
 
 	/**
@@ -271,7 +446,11 @@ public class InvertedIndex {
 	 */
 	@Override
 	public String toString() {
-		return index.toString();
+		StringJoiner joiner = new StringJoiner(", ", "{", "}");
+		for (var entry : viewEntries()) {
+			joiner.add(entry.toString());
+		}
+		return joiner.toString();
 	}
 
 	/**
@@ -280,7 +459,84 @@ public class InvertedIndex {
 	 * @return the counts map as a string
 	 */
 	public String countsToString() {
-		return counts.toString();
+		return documents.viewCounts().toString();
+	}
+
+	/**
+	 * Looks up the positions of a word in a location.
+	 *
+	 * @param word the word to look up
+	 * @param location the location to look up
+	 * @return the positions or null if the word is not found in the location
+	 */
+	private PositionList getPositions(String word, String location) {
+		var postings = getPostings(word);
+		int document = documents.getId(location);
+		return postings != null && document >= 0 ? postings.get(document) : null;
+	}
+
+	/**
+	 * Returns the postings of a word.
+	 *
+	 * @param word the word to look up
+	 * @return the postings of the word or null if the word is not in the index
+	 */
+	PostingsList getPostings(String word) {
+		if (dictionary != null) {
+			int id = dictionary.find(word);
+			return id >= 0 ? dictionary.getPostings(id) : null;
+		}
+		return index.get(word);
+	}
+
+	/**
+	 * Returns the postings of every word in the index that starts with a prefix, in
+	 * sorted order of the words. A frozen index returns a view of a single range of
+	 * its dictionary.
+	 *
+	 * @param prefix the prefix to look for
+	 * @return the postings of the words starting with the prefix
+	 */
+	List<PostingsList> getPrefixPostings(String prefix) {
+		if (dictionary != null) {
+			int[] range = dictionary.findPrefix(prefix);
+			return dictionary.getPostings(range[0], range[1]);
+		}
+
+		ArrayList<PostingsList> found = new ArrayList<>();
+		for (var entry : index.tailMap(prefix).entrySet()) {
+			if (!entry.getKey().startsWith(prefix)) {
+				break;
+			}
+			found.add(entry.getValue());
+		}
+		return found;
+	}
+
+	/**
+	 * Resolves the document IDs of a postings list into a map sorted by location.
+	 *
+	 * @param postings the postings to resolve
+	 * @return a map of location to positions
+	 */
+	private TreeMap<String, PositionList> mapLocations(PostingsList postings) {
+		TreeMap<String, PositionList> locations = new TreeMap<>();
+		for (int i = 0; i < postings.size(); i++) {
+			locations.put(documents.getLocation(postings.getDocument(i)), postings.getPositions(i));
+		}
+		return locations;
+	}
+
+	/**
+	 * Returns the words in the index paired with their positions by location, in
+	 * sorted order. The locations of a word are resolved as the iterator reaches it.
+	 *
+	 * @return the entries of the index keyed by location
+	 */
+	private Iterable<Map.Entry<String, TreeMap<String, PositionList>>> viewEntries() {
+		return () -> viewWords().stream()
+				.map(word -> Map.entry(word, mapLocations(getPostings(word))))
+				.iterator();
 	}
 
 
@@ -291,16 +547,29 @@ public class InvertedIndex {
 	 * @return the ordered list of results from the search
 	 */
 	public ArrayList<ResultsMetadata> exactSearch(Set<String> query) {
-		ArrayList<ResultsMetadata> results = new ArrayList<>();
-		Map<String, ResultsMetadata> lookup = new HashMap<>();
+		return exactSearch(query, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Searches through the index for each word in the query and returns only the best k results, sorted by
+	 * their metadata. Documents that cannot make it into the best k are skipped without being fully scored.
+	 *
+	 * @param query the set of words to search for
+	 * @param k the maximum number of results to return
+	 * @return the ordered list of the best results from the search
+	 *
+	 * @see #select(List, int)
+	 */
+	public ArrayList<ResultsMetadata> exactSearch(Set<String> query, int k) {
+		ArrayList<PostingsList> lists = new ArrayList<>(query.size());
 
 		for (String word : query) {
-			if (hasWord(word)) {
-				createResults(word, results, lookup);
+			var postings = getPostings(word);
+			if (postings != null) {
+				lists.add(postings);
 			}
 		}
-		Collections.sort(results);
-		return results;
+		return select(lists, k);
 	}
 
 	/**
@@ -311,40 +580,428 @@ public class InvertedIndex {
 	 * @return an arraylist of ResultsMetadata that came from the partial search
 	 */
 	public ArrayList<ResultsMetadata> partialSearch(Set<String> query) {
-		ArrayList<ResultsMetadata> results = new ArrayList<>();
-		Map<String, ResultsMetadata> lookup = new HashMap<>();
+		return partialSearch(query, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Performs a partial search on the inverted index and returns only the best k results, sorted by their
+	 * metadata. Documents that cannot make it into the best k are skipped without being fully scored.
+	 *
+	 * @param query the query containing the words to do a partial search for
+	 * @param k the maximum number of results to return
+	 * @return an arraylist of the best ResultsMetadata that came from the partial search
+	 *
+	 * @see #select(List, int)
+	 */
+	public ArrayList<ResultsMetadata> partialSearch(Set<String> query, int k) {
+		ArrayList<PostingsList> lists = new ArrayList<>();
 
 		for (String word : query) {
-			for (var iterator : index.tailMap(word).entrySet()) {
-				String key = iterator.getKey();
+			lists.addAll(getPrefixPostings(word));
+		}
+		return select(lists, k);
+	}
 
-				if (!key.startsWith(word)) {
-					break;
+	/**
+	 * Performs an exact or partial search and returns only the best k results.
+	 *
+	 * @param query the set of words to search for
+	 * @param partial true to do a partial search and false to do an exact search
+	 * @param k the maximum number of results to return
+	 * @return the ordered list of the best results from the search
+	 *
+	 * @see #exactSearch(Set, int)
+	 * @see #partialSearch(Set, int)
+	 */
+	public ArrayList<ResultsMetadata> search(Set<String> query, boolean partial, int k) {
+		return partial ? partialSearch(query, k) : exactSearch(query, k);
+	}
+
+	/**
+	 * Searches for a parsed query and returns only the best k results. Phrases and
+	 * proximity clauses are ranked by the number of times they match, along with
+	 * the single words of the query.
+	 *
+	 * @param query the parsed query
+	 * @param partial true to match the single words of the query as prefixes
+	 * @param k the maximum number of results to return
+	 * @return the ordered list of the best results from the search
+	 *
+	 * @see QueryTree#postings(InvertedIndex, boolean)
+	 */
+	public ArrayList<ResultsMetadata> search(QueryTree query, boolean partial, int k) {
+		return select(query.postings(this, partial), k);
+	}
+
+	/**
+	 * Scores the documents in the postings of the query words and returns the best
+	 * k. A word matched by more than one query word is counted once per query word.
+	 *
+	 * <p>
+	 * When fewer than all of the documents are wanted and there are only a few
+	 * postings lists, the lists are walked together a document at a time using
+	 * {@link MaxScore} so documents that cannot reach the best k are skipped.
+	 * Otherwise the matches of every document are counted and then ranked.
+	 *
+	 * @param lists the postings of each query word
+	 * @param k the maximum number of results to return
+	 * @return the sorted list of the best results
+	 */
+	private ArrayList<ResultsMetadata> select(List<PostingsList> lists, int k) {
+		if (k < documents.size() && lists.size() > 1 && lists.size() <= MaxScore.MAX_LISTS) {
+			return new MaxScore(lists).select(k);
+		}
+
+		long candidates = 0;
+		for (PostingsList postings : lists) {
+			candidates += postings.size();
+		}
+
+		Matches matches = new Matches((int) Math.min(candidates, documents.size()));
+		for (PostingsList postings : lists) {
+			matches.add(postings);
+		}
+		return matches.select(k);
+	}
+
+	/**
+	 * Accumulates the number of matches of each document during a search,
+	 * remembering which documents were matched in the order they were found. The
+	 * documents are looked up in an open-addressed hash table sized to the postings
+	 * being searched rather than to the whole index, so a search for a rare word
+	 * does not allocate and clear an entry for every document.
+	 */
+	private class Matches {
+
+		/** The scorer used to score the documents. */
+		private final Scorer scorer;
+
+		/** The entry of each document plus one, placed by the hash of its ID, where 0 marks an empty slot. */
+		private final int[] table;
+
+		/** The IDs of the documents with at least one match, in the order they were found. */
+		private final int[] found;
+
+		/** The number of matches of each found document. */
+		private final int[] counts;
+
+		/** The sum of the scores of each query word in each found document. */
+		private final double[] scores;
+
+		/** The number of documents with at least one match. */
+		private int size;
+
+		/**
+		 * Initializes an empty set of matches.
+		 *
+		 * @param candidates the most documents that can be matched
+		 */
+		private Matches(int candidates) {
+			int capacity = 2;
+			while (capacity < candidates * 2L) {
+				capacity <<= 1;
+			}
+
+			this.scorer = getScorer();
+			this.table = new int[capacity];
+			this.found = new int[candidates];
+			this.counts = new int[candidates];
+			this.scores = new double[candidates];
+			this.size = 0;
+		}
+
+		/**
+		 * Returns the entry of a document, adding a new one if it has not been found yet.
+		 *
+		 * @param document the ID of the document
+		 * @return the entry of the document
+		 */
+		private int entry(int document) {
+			int mask = table.length - 1;
+			int hash = document * 0x9E3779B9;
+			int slot = (hash ^ (hash >>> 16)) & mask;
+
+			while (table[slot] != 0) {
+				int entry = table[slot] - 1;
+				if (found[entry] == document) {
+					return entry;
+				}
+				slot = (slot + 1) & mask;
+			}
+
+			found[size] = document;
+			table[slot] = ++size;
+			return size - 1;
+		}
+
+		/**
+		 * Adds the matches of one word.
+		 *
+		 * @param postings the postings of the word
+		 */
+		private void add(PostingsList postings) {
+			double weight = scorer.weight(postings);
+
+			for (int i = 0; i < postings.size(); i++) {
+				int document = postings.getDocument(i);
+				int frequency = postings.getPositions(i).size();
+				int entry = entry(document);
+
+				counts[entry] += frequency;
+				scores[entry] += scorer.score(frequency, document, weight);
+			}
+		}
+
+		/**
+		 * Scores the matched documents and returns the best k as sorted results.
+		 *
+		 * @param k the maximum number of results to return
+		 * @return the sorted list of the best results
+		 */
+		private ArrayList<ResultsMetadata> select(int k) {
+			if (size <= k) {
+				ArrayList<ResultsMetadata> results = new ArrayList<>(size);
+				for (int i = 0; i < size; i++) {
+					results.add(result(i));
 				}
-				createResults(key, results, lookup);
+				Collections.sort(results);
+				return results;
 			}
+
+			TopResults best = new TopResults(k);
+			for (int i = 0; i < size; i++) {
+				best.offer(found[i], counts[i], scorer.finish(scores[i], counts[i], found[i]));
+			}
+			return best.toList();
+		}
+
+		/**
+		 * Creates the result for a matched document.
+		 *
+		 * @param entry the entry of the document
+		 * @return the result for the document
+		 */
+		private ResultsMetadata result(int entry) {
+			return new ResultsMetadata(found[entry], counts[entry], scorer.finish(scores[entry], counts[entry], found[entry]));
 		}
-		Collections.sort(results);
-		return results;
 	}
+
 	/**
-	 * Creates a new ResultsMetadata or updates an already existing ResultsMetadata's matches and scores by searching through a
-	 * lookup map.
-	 *
-	 * @param key the word in the inverted index
-	 * @param results the array to populate with results from the search
-	 * @param lookup the map to use to check if a location already exists for a ResultsMetadata
+	 * Keeps the best k results seen so far in a heap whose head is the worst of
+	 * them, so a result is only created for a document that scores at least as
+	 * high as that head.
+	 */
+	private class TopResults {
+
+		/** The maximum number of results to keep. */
+		private final int k;
+
+		/** The best results so far, with the worst at the head. */
+		private final PriorityQueue<ResultsMetadata> heap;
+
+		/**
+		 * Initializes an empty set of results.
+		 *
+		 * @param k the maximum number of results to keep
+		 */
+		private TopResults(int k) {
+			this.k = k;
+			this.heap = new PriorityQueue<>(k + 1, Collections.reverseOrder());
+		}
+
+		/**
+		 * Returns the score a document must reach to enter the best results.
+		 *
+		 * @return the score of the worst result kept if there are k of them, or
+		 *   negative infinity if there are fewer
+		 */
+		private double threshold() {
+			if (heap.size() < k) {
+				return Double.NEGATIVE_INFINITY;
+			}
+			return heap.isEmpty() ? Double.POSITIVE_INFINITY : heap.peek().score;
+		}
+
+		/**
+		 * Adds a document if it is one of the best k seen so far.
+		 *
+		 * @param document the ID of the document
+		 * @param matches the number of matches in the document
+		 * @param score the score of the document
+		 */
+		private void offer(int document, int matches, double score) {
+			if (k == 0 || (heap.size() == k && score < heap.peek().score)) {
+				return;
+			}
+
+			heap.add(new ResultsMetadata(document, matches, score));
+			if (heap.size() > k) {
+				heap.poll();
+			}
+		}
+
+		/**
+		 * Returns the results kept in sorted order.
+		 *
+		 * @return the sorted list of results
+		 */
+		private ArrayList<ResultsMetadata> toList() {
+			ArrayList<ResultsMetadata> results = new ArrayList<>(heap);
+			Collections.sort(results);
+			return results;
+		}
+	}
+
+	/**
+	 * Walks the postings of the query words together one document at a time using
+	 * the MaxScore strategy. Each list has an upper bound on the score it can add
+	 * to a document. Once the best k results are known to score above the combined
+	 * bound of the lists with the smallest bounds, those lists can no longer decide
+	 * which documents are scored; only documents from the other lists are scored,
+	 * and the smaller lists are only probed while the document can still reach the
+	 * best k.
 	 */
-	private void createResults(String key, ArrayList<ResultsMetadata> results, Map<String, ResultsMetadata> lookup ) {
-		for (String location : index.get(key).keySet()) {
-			var result = lookup.get(location);
+	private class MaxScore {
+
+		/**
+		 * The largest number of postings lists walked together. Finding the next
+		 * document takes a pass over the lists, so more lists are counted instead.
+		 */
+		private static final int MAX_LISTS = 32;
+
+		/**
+		 * Allows for rounding when comparing bounds, since adding up the score of
+		 * each word can round differently than the final score of a document.
+		 */
+		private static final double SLACK = 1 + 1e-9;
+
+		/** The scorer used to score the documents. */
+		private final Scorer scorer;
+
+		/** The postings lists sorted by increasing bound. */
+		private final PostingsList[] lists;
+
+		/** The weight of each list. */
+		private final double[] weights;
+
+		/** The position of each list in the query, used to add up scores in query order. */
+		private final int[] origins;
+
+		/** The score of each query word in the current document, in query order. */
+		private final double[] parts;
+
+		/** The sum of the bounds of each list and every list before it. */
+		private final double[] bounds;
+
+		/** The current index into each postings list. */
+		private final int[] cursors;
+
+		/**
+		 * Initializes the lists to walk.
+		 *
+		 * @param postings the postings of each query word
+		 */
+		private MaxScore(List<PostingsList> postings) {
+			int size = postings.size();
+			double[] weight = new double[size];
+			double[] bound = new double[size];
+			Integer[] order = new Integer[size];
+
+			this.scorer = getScorer();
+
+			for (int i = 0; i < size; i++) {
+				weight[i] = scorer.weight(postings.get(i));
+				bound[i] = weight[i] * postings.get(i).getBound(scorer);
+				order[i] = i;
+			}
+			Arrays.sort(order, (a, b) -> Double.compare(bound[a], bound[b]));
+
+			this.lists = new PostingsList[size];
+			this.weights = new double[size];
+			this.origins = new int[size];
+			this.parts = new double[size];
+			this.bounds = new double[size];
+			this.cursors = new int[size];
+
+			double sum = 0;
+			for (int i = 0; i < size; i++) {
+				lists[i] = postings.get(order[i]);
+				weights[i] = weight[order[i]];
+				origins[i] = order[i];
+				sum += bound[order[i]];
+				bounds[i] = sum;
+			}
+		}
+
+		/**
+		 * Finds the best k documents.
+		 *
+		 * @param k the maximum number of results to return
+		 * @return the sorted list of the best results
+		 */
+		private ArrayList<ResultsMetadata> select(int k) {
+			TopResults best = new TopResults(k);
+			int essential = 0;
+
+			while (true) {
+				double threshold = best.threshold();
+
+				// lists before the first essential one cannot lift a document into the best k on their own
+				while (essential < lists.length && bounds[essential] * SLACK < threshold) {
+					essential++;
+				}
+
+				int document = Integer.MAX_VALUE;
+				for (int i = essential; i < lists.length; i++) {
+					if (cursors[i] < lists[i].size()) {
+						document = Math.min(document, lists[i].getDocument(cursors[i]));
+					}
+				}
+
+				if (document == Integer.MAX_VALUE) {
+					break;
+				}
 
-			if (result == null) {
-				result = new ResultsMetadata(location);
-				results.add(result);
-				lookup.put(location, result);
+				int matches = 0;
+				double score = 0;
+				Arrays.fill(parts, 0);
+
+				for (int i = essential; i < lists.length; i++) {
+					if (cursors[i] < lists[i].size() && lists[i].getDocument(cursors[i]) == document) {
+						int frequency = lists[i].getPositions(cursors[i]++).size();
+						parts[origins[i]] = scorer.score(frequency, document, weights[i]);
+						matches += frequency;
+						score += parts[origins[i]];
+					}
+				}
+
+				boolean competitive = true;
+
+				for (int i = essential - 1; i >= 0; i--) {
+					if ((score + bounds[i]) * SLACK < threshold) {
+						competitive = false;
+						break;
+					}
+
+					cursors[i] = lists[i].advance(cursors[i], document);
+					if (cursors[i] < lists[i].size() && lists[i].getDocument(cursors[i]) == document) {
+						int frequency = lists[i].getPositions(cursors[i]).size();
+						parts[origins[i]] = scorer.score(frequency, document, weights[i]);
+						matches += frequency;
+						score += parts[origins[i]];
+					}
+				}
+
+				if (competitive) {
+					// add up the scores again in query order so they round the same as when counting
+					score = 0;
+					for (double part : parts) {
+						score += part;
+					}
+					best.offer(document, matches, scorer.finish(score, matches, document));
+				}
 			}
-			result.update(key);
+			return best.toList();
 		}
 	}
 
@@ -356,34 +1013,30 @@ public class InvertedIndex {
 	 */
 	public class ResultsMetadata implements Comparable<ResultsMetadata>{
 
+		/** The ID of the document that contains the word from the query*/
+		private final int document;
+
 		/** The file that contains the word from the query*/
 		private final String location;
 
 		/**The number of matches found in the file*/
-		private int matches;
+		private final int matches;
 
 		/**The score from the search*/
-		private double score;
+		private final double score;
 
 		/**
 		 * Initializes a ResultMetadata object
 		 *
-		 * @param location the file the word is found in
-		 */
-		public ResultsMetadata(String location) {
-			this.location = location;
-			this.matches = 0;
-			this.score = 0;
-		}
-
-		/**
-		 * Method for adding to the total amount of matches
-		 *
-		 * @param key the file location
+		 * @param document the ID of the document the word is found in
+		 * @param matches the total amount of matches found in the document
+		 * @param score the score of the document
 		 */
-		private void update(String key) {
-			this.matches += index.get(key).get(location).size();
-			this.score = (double) this.matches / counts.get(this.location);
+		private ResultsMetadata(int document, int matches, double score) {
+			this.document = document;
+			this.location = documents.getLocation(document);
+			this.matches = matches;
+			this.score = score;
 		}
 
 		/**
@@ -3,14 +3,14 @@ package edu.usfca.cs272;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
-import opennlp.tools.stemmer.snowball.SnowballStemmer.ALGORITHM;
-
 /**
  * Class for processing a file and building the inverted index while storing counts in a data structure
  *
@@ -38,20 +38,123 @@ public class InvertedIndexBuilder {
 	 *
 	 * @param file the file to process
 	 * @param index the data structure for the inverted index
+	 * @return the number of words found in the file
 	 *
 	 * @throws IOException if an I/O error occurs
 	 */
-	public static void processFile(Path file, InvertedIndex index) throws IOException {
-		int position = 1;
-		String location = file.toString();
+	public static int processFile(Path file, InvertedIndex index) throws IOException {
 		try (BufferedReader reader =  Files.newBufferedReader(file, UTF_8)) {
-			SnowballStemmer stemmer = new SnowballStemmer(ALGORITHM.ENGLISH);
-			String line;
-			while ((line = reader.readLine()) != null) {
-				for (String word : FileProcessor.parse(line)) {
-					index.add(stemmer.stem(word).toString(), location, position++);
-				}
+			return processLines(reader, file.toString(), index);
+		}
+	}
+
+	/**
+	 * Reads, parses, and stems the lines in a byte range of a file and adds them directly into the inverted index.
+	 * The range should start at the beginning of a line and end after a line break or at the end of the file.
+	 * Positions start from 1 at the beginning of the range.
+	 *
+	 * @param file the file to process
+	 * @param start the byte offset of the start of the range
+	 * @param end the byte offset just past the end of the range
+	 * @param index the data structure for the inverted index
+	 * @return the number of words found in the range
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static int processRange(Path file, long start, long end, InvertedIndex index) throws IOException {
+		try (InputStream input = Files.newInputStream(file)) {
+			input.skipNBytes(start);
+			RangeInputStream range = new RangeInputStream(input, end - start);
+
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(range, UTF_8.newDecoder()))) {
+				return processLines(reader, file.toString(), index);
+			}
+		}
+	}
+
+	/**
+	 * Parses and stems lines from a reader and adds them into the inverted index, with positions starting from 1.
+	 *
+	 * @param reader the reader to read lines from
+	 * @param location the location of the lines
+	 * @param index the data structure for the inverted index
+	 * @return the number of words found
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static int processLines(BufferedReader reader, String location, InvertedIndex index) throws IOException {
+		int position = 1;
+		FileProcessor.Tokenizer tokenizer = new FileProcessor.Tokenizer();
+		String line;
+		while ((line = reader.readLine()) != null) {
+			tokenizer.reset(line);
+			while (tokenizer.next()) {
+				index.add(StemCache.ENGLISH.stem(tokenizer.word()), location, position++);
 			}
 		}
+		return position - 1;
+	}
+
+	/**
+	 * An input stream that stops after a fixed number of bytes.
+	 */
+	private static class RangeInputStream extends FilterInputStream {
+
+		/** The number of bytes left to read. */
+		private long remaining;
+
+		/**
+		 * Initializes the stream.
+		 *
+		 * @param input the stream to read from
+		 * @param length the number of bytes to read
+		 */
+		public RangeInputStream(InputStream input, long length) {
+			super(input);
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+
+			int read = super.read();
+			if (read >= 0) {
+				remaining--;
+			}
+			return read;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+
+			int read = super.read(bytes, offset, (int) Math.min(length, remaining));
+			if (read > 0) {
+				remaining -= read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(Math.min(n, remaining));
+			remaining -= skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(super.available(), remaining);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
 	}
 }
@@ -54,7 +54,9 @@ public class JsonWriter {
 
 	/**
 	 * Indents and then writes the text element surrounded by {@code " "} quotation
-	 * marks.
+	 * marks. Any quotation marks or backslashes in the element are escaped, which
+	 * matters for queries with quoted phrases and for locations such as Windows
+	 * paths, whose backslashes are written as {@code \\}.
 	 *
 	 * @param element the element to write
 	 * @param writer the writer to use
@@ -64,7 +66,18 @@ public class JsonWriter {
 	public static void writeQuote(String element, Writer writer, int indent) throws IOException {
 		writeIndent(writer, indent);
 		writer.write('"');
-		writer.write(element);
+
+		int start = 0;
+		for (int i = 0; i < element.length(); i++) {
+			char c = element.charAt(i);
+			if (c == '"' || c == '\\') {
+				writer.write(element, start, i - start);
+				writer.write('\\');
+				start = i;
+			}
+		}
+
+		writer.write(element, start, element.length() - start);
 		writer.write('"');
 	}
 
@@ -370,21 +383,12 @@ public class JsonWriter {
 	 * @param writer the writer to use
 	 * @param indent the number of times to indent
 	 * @throws IOException if an I/O error occurs
+	 *
+	 * @see #writeInvertedIndex(Iterable, Writer, int)
 	 */
 	public static void writeInvertedIndex(Map<String, ? extends Map<String, ? extends Collection<? extends Number>>> elements, Writer writer, int indent)
 			throws IOException{
-		var iterator = elements.entrySet().iterator();
-		writer.write("{");
-
-		if (iterator.hasNext()) {
-			writeInvertedIndexEntry(iterator.next(), writer, indent);
-		}
-		while (iterator.hasNext()) {
-			writer.write(",");
-			writeInvertedIndexEntry(iterator.next(), writer, indent);
-		}
-		writer.write("\n");
-		writer.write("}");
+		writeInvertedIndex(elements.entrySet(), writer, indent);
 	}
 
 	/**
@@ -408,11 +412,52 @@ public class JsonWriter {
 	 * @param elements the inverted index that is stored
 	 * @param path the path to write the inverted index to
 	 * @throws IOException if an IO error occurs
+	 *
+	 * @see #writeInvertedIndex(Iterable, Path)
 	 */
 	public static void writeInvertedIndex(Map<String, ? extends Map<String, ? extends Collection<? extends Number>>> elements, Path path)
 			throws IOException {
+		writeInvertedIndex(elements.entrySet(), path);
+	}
+
+	/**
+	 * Writes the entries of an inverted index in pretty JSON format. Lets an index
+	 * be written one word at a time instead of building the whole nested map first.
+	 *
+	 * @param entries the word entries in sorted order
+	 * @param writer the writer to use
+	 * @param indent the number of times to indent
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static void writeInvertedIndex(Iterable<? extends Entry<String, ? extends Map<String, ? extends Collection<? extends Number>>>> entries,
+			Writer writer, int indent) throws IOException {
+		var iterator = entries.iterator();
+		writer.write("{");
+
+		if (iterator.hasNext()) {
+			writeInvertedIndexEntry(iterator.next(), writer, indent);
+		}
+		while (iterator.hasNext()) {
+			writer.write(",");
+			writeInvertedIndexEntry(iterator.next(), writer, indent);
+		}
+		writer.write("\n");
+		writer.write("}");
+	}
+
+	/**
+	 * Writes the entries of an inverted index in pretty JSON format to the file path.
+	 *
+	 * @param entries the word entries in sorted order
+	 * @param path the path to write the inverted index to
+	 * @throws IOException if an I/O error occurs
+	 *
+	 * @see #writeInvertedIndex(Iterable, Writer, int)
+	 */
+	public static void writeInvertedIndex(Iterable<? extends Entry<String, ? extends Map<String, ? extends Collection<? extends Number>>>> entries,
+			Path path) throws IOException {
 		try (BufferedWriter writer = Files.newBufferedWriter(path, UTF_8)) {
-			writeInvertedIndex(elements, writer, 0);
+			writeInvertedIndex(entries, writer, 0);
 		}
 	}
 
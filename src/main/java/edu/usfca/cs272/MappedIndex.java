@@ -0,0 +1,472 @@
+package edu.usfca.cs272;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A read-only inverted index served directly from a memory-mapped snapshot file.
+ * Only the document table is loaded onto the heap; the words, the table of word
+ * offsets, and the postings stay in the mapped file and are decoded as they are
+ * needed. This lets the operating system keep the frequently used parts of the
+ * index in its page cache and allows indexes larger than the heap to be searched.
+ *
+ * <p>
+ * Words are found by comparing their UTF-8 bytes in the mapped file against the
+ * bytes of the word searched for, so no strings are created while searching.
+ * Postings are not searched in place, though: each list a search needs is
+ * decoded from the mapped file onto the heap as a whole {@link PostingsList}.
+ * The most recently used lists are kept decoded along with their score bounds,
+ * up to a budget of {@link #CACHE_BYTES} encoded bytes, so only the postings of
+ * words that have not been searched recently stay solely in the mapped file.
+ *
+ * <p>
+ * Since the index cannot change, it is safe to search from multiple threads.
+ *
+ * @see IndexSnapshot
+ *
+ * @author Katherine Le
+ *
+ */
+public class MappedIndex extends InvertedIndex implements ConcurrentIndex {
+
+	/** Layout used to read the big-endian integers written by the snapshot. */
+	private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+	/** Layout used to read the big-endian offsets written by the snapshot. */
+	private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+	/** The snapshot file being served. */
+	private final Path path;
+
+	/** The mapped contents of the snapshot file. */
+	private final MemorySegment segment;
+
+	/** The offset of the table of word offsets. */
+	private final long table;
+
+	/** The number of words in the index. */
+	private final int words;
+
+	/** The number of postings in the index, as recorded in the snapshot header. */
+	private final long postings;
+
+	/** The most bytes of encoded postings kept decoded in memory at once. */
+	public static final long CACHE_BYTES = 64L * 1024 * 1024;
+
+	/** The decoded postings keyed by word position, from least to most recently used. */
+	private final LinkedHashMap<Integer, Cached> cache;
+
+	/** The number of encoded bytes of the postings in the cache. */
+	private long cached;
+
+	/**
+	 * Maps a snapshot file and reads its document table.
+	 *
+	 * @param path the snapshot file to map
+	 * @throws IOException if an I/O error occurs or the file is not a valid snapshot
+	 *
+	 * @see InvertedIndex#saveSnapshot(Path)
+	 */
+	public MappedIndex(Path path) throws IOException {
+		this(path, readStart(path));
+	}
+
+	/**
+	 * Maps a snapshot file after its document table has been read.
+	 *
+	 * @param path the snapshot file to map
+	 * @param start the document table and counts at the start of the snapshot
+	 * @throws IOException if an I/O error occurs or the file is not a valid snapshot
+	 */
+	private MappedIndex(Path path, Start start) throws IOException {
+		super(start.documents(), new TreeMap<>());
+		this.path = path;
+		this.postings = start.postings();
+
+		try (FileChannel channel = FileChannel.open(path)) {
+			this.segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), Arena.ofAuto());
+		}
+
+		long size = segment.byteSize();
+		this.table = size >= Long.BYTES ? segment.get(LONG, size - Long.BYTES) : -1;
+
+		if (table < 0 || table > size - Long.BYTES || (size - Long.BYTES - table) % Long.BYTES != 0) {
+			throw new IOException("Invalid word table in index snapshot: " + path);
+		}
+		this.words = (int) ((size - Long.BYTES - table) / Long.BYTES);
+		this.cache = new LinkedHashMap<>(16, 0.75f, true);
+		this.cached = 0;
+	}
+
+	/**
+	 * The parts of a snapshot read before the words: the document table and the
+	 * number of postings.
+	 *
+	 * @param documents the document table of the snapshot
+	 * @param postings the number of postings in the snapshot
+	 */
+	private record Start(DocumentTable documents, long postings) {
+	}
+
+	/**
+	 * Reads the header, document table, and counts at the start of a snapshot file.
+	 *
+	 * @param path the snapshot file to read
+	 * @return the document table and number of postings of the snapshot
+	 * @throws IOException if an I/O error occurs or the file is not a valid snapshot
+	 */
+	private static Start readStart(Path path) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			IndexSnapshot.readHeader(in, path);
+			DocumentTable documents = DocumentTable.read(in);
+			in.readInt();
+			return new Start(documents, in.readLong());
+		}
+	}
+
+	/**
+	 * Returns the file offset of a word.
+	 *
+	 * @param id the position of the word in sorted order
+	 * @return the offset where the word is stored
+	 */
+	private long offsetOf(int id) {
+		return segment.get(LONG, table + (long) id * Long.BYTES);
+	}
+
+	/**
+	 * Decodes a word from the mapped file.
+	 *
+	 * @param id the position of the word in sorted order
+	 * @return the word
+	 */
+	private String wordAt(int id) {
+		long offset = offsetOf(id);
+		int length = segment.get(INT, offset);
+		byte[] bytes = segment.asSlice(offset + Integer.BYTES, length).toArray(ValueLayout.JAVA_BYTE);
+		return new String(bytes, UTF_8);
+	}
+
+	/**
+	 * Compares a word in the mapped file to the UTF-8 bytes of another word, in the
+	 * same order as {@link String#compareTo(String)} that the words are sorted in.
+	 *
+	 * @param id the position of the word in sorted order
+	 * @param key the UTF-8 bytes of the other word
+	 * @return a negative number, zero, or a positive number if the word comes before,
+	 *   is the same as, or comes after the other word
+	 */
+	private int compare(int id, byte[] key) {
+		long offset = offsetOf(id);
+		int length = segment.get(INT, offset);
+		long start = offset + Integer.BYTES;
+		long mismatch = MemorySegment.mismatch(segment, start, start + length, MemorySegment.ofArray(key), 0, key.length);
+
+		if (mismatch < 0) {
+			return 0;
+		}
+
+		if (mismatch == length || mismatch == key.length) {
+			return length - key.length;
+		}
+
+		return order(segment.get(ValueLayout.JAVA_BYTE, start + mismatch)) - order(key[(int) mismatch]);
+	}
+
+	/**
+	 * Returns the sort order of the first byte that differs between two UTF-8 words.
+	 * Bytes are compared unsigned, except that characters from U+E000 to U+FFFF sort
+	 * after supplementary characters, as they do in UTF-16.
+	 *
+	 * @param b the byte that differs
+	 * @return the sort order of the byte
+	 */
+	private static int order(byte b) {
+		int unsigned = b & 0xFF;
+		return unsigned == 0xEE || unsigned == 0xEF ? unsigned + 0x10 : unsigned;
+	}
+
+	/**
+	 * Checks whether a word in the mapped file starts with the UTF-8 bytes of a prefix.
+	 *
+	 * @param id the position of the word in sorted order
+	 * @param prefix the UTF-8 bytes of the prefix
+	 * @return true if the word starts with the prefix
+	 */
+	private boolean startsWith(int id, byte[] prefix) {
+		long offset = offsetOf(id);
+		long start = offset + Integer.BYTES;
+
+		return segment.get(INT, offset) >= prefix.length
+				&& MemorySegment.mismatch(segment, start, start + prefix.length, MemorySegment.ofArray(prefix), 0, prefix.length) < 0;
+	}
+
+	/**
+	 * Finds the position of a word in sorted order using a binary search over the
+	 * table of word offsets.
+	 *
+	 * @param key the UTF-8 bytes of the word to find
+	 * @return the position of the word, or (-(insertion point) - 1) if not found
+	 */
+	private int find(byte[] key) {
+		int low = 0;
+		int high = words - 1;
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int compared = compare(middle, key);
+
+			if (compared < 0) {
+				low = middle + 1;
+			}
+			else if (compared > 0) {
+				high = middle - 1;
+			}
+			else {
+				return middle;
+			}
+		}
+		return -low - 1;
+	}
+
+	@Override
+	PostingsList getPostings(String word) {
+		int id = find(word.getBytes(UTF_8));
+		return id >= 0 ? postingsAt(id) : null;
+	}
+
+	/**
+	 * Returns the postings of a word, decoding them from the mapped file if they are
+	 * not cached. The least recently used postings are evicted once the cache holds
+	 * more than {@link #CACHE_BYTES} encoded bytes.
+	 *
+	 * @param id the position of the word in sorted order
+	 * @return the postings of the word
+	 */
+	private PostingsList postingsAt(int id) {
+		synchronized (cache) {
+			Cached entry = cache.get(id);
+			if (entry != null) {
+				return entry.postings();
+			}
+		}
+
+		long start = offsetOf(id) + Integer.BYTES + segment.get(INT, offsetOf(id));
+		long end = id + 1 < words ? offsetOf(id + 1) : table;
+		PostingsList postings;
+
+		try {
+			postings = PostingsList.read(new DataInputStream(new SegmentInputStream(segment.asSlice(start, end - start))));
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException("Invalid postings for " + wordAt(id) + " in " + path, e);
+		}
+
+		if (end - start <= CACHE_BYTES) {
+			synchronized (cache) {
+				Cached previous = cache.put(id, new Cached(postings, end - start));
+				cached += end - start - (previous == null ? 0 : previous.bytes());
+
+				Iterator<Map.Entry<Integer, Cached>> iterator = cache.entrySet().iterator();
+				while (cached > CACHE_BYTES) {
+					cached -= iterator.next().getValue().bytes();
+					iterator.remove();
+				}
+			}
+		}
+		return postings;
+	}
+
+	@Override
+	List<PostingsList> getPrefixPostings(String prefix) {
+		byte[] key = prefix.getBytes(UTF_8);
+		int id = find(key);
+		ArrayList<PostingsList> found = new ArrayList<>();
+
+		for (int i = id < 0 ? -id - 1 : id; i < words && startsWith(i, key); i++) {
+			found.add(postingsAt(i));
+		}
+		return found;
+	}
+
+	@Override
+	public boolean hasWord(String word) {
+		return find(word.getBytes(UTF_8)) >= 0;
+	}
+
+	@Override
+	public int numWords() {
+		return words;
+	}
+
+	@Override
+	public long numPostings() {
+		return postings;
+	}
+
+	@Override
+	public Collection<String> viewWords() {
+		return new AbstractList<>() {
+			@Override
+			public String get(int index) {
+				return wordAt(index);
+			}
+
+			@Override
+			public int size() {
+				return words;
+			}
+		};
+	}
+
+	/**
+	 * Does nothing, since the words of a mapped index are already sorted in the file.
+	 */
+	@Override
+	public void freeze() {
+		// already frozen
+	}
+
+	/**
+	 * Copies the mapped snapshot file, since it is already in the snapshot format.
+	 */
+	@Override
+	public void saveSnapshot(Path path) throws IOException {
+		Files.copy(this.path, path, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Not supported, since a mapped index is read-only.
+	 *
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public void loadSnapshot(Path path) {
+		throw new UnsupportedOperationException("A mapped index is read-only.");
+	}
+
+	/**
+	 * Not supported, since a mapped index is read-only.
+	 *
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public void add(String word, String location, int position) {
+		throw new UnsupportedOperationException("A mapped index is read-only.");
+	}
+
+	/**
+	 * Not supported, since a mapped index is read-only.
+	 *
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public void addAll(List<String> words, String location, int position) {
+		throw new UnsupportedOperationException("A mapped index is read-only.");
+	}
+
+	/**
+	 * Not supported, since a mapped index is read-only.
+	 *
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public void addAll(List<String> words, String location) {
+		throw new UnsupportedOperationException("A mapped index is read-only.");
+	}
+
+	/**
+	 * Not supported, since a mapped index is read-only.
+	 *
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public void addAll(InvertedIndex local) {
+		throw new UnsupportedOperationException("A mapped index is read-only.");
+	}
+
+	/**
+	 * Not supported, since a mapped index is read-only.
+	 *
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public void addAll(InvertedIndex local, int offset) {
+		throw new UnsupportedOperationException("A mapped index is read-only.");
+	}
+
+	/**
+	 * Decoded postings in the cache along with the size of their encoding.
+	 *
+	 * @param postings the decoded postings
+	 * @param bytes the number of bytes the postings take in the mapped file
+	 */
+	private record Cached(PostingsList postings, long bytes) {
+	}
+
+	/**
+	 * Reads bytes straight from a mapped segment, so postings can be decoded without
+	 * first copying their bytes onto the heap.
+	 */
+	private static class SegmentInputStream extends InputStream {
+
+		/** The segment to read from. */
+		private final MemorySegment segment;
+
+		/** The offset of the next byte to read. */
+		private long position;
+
+		/**
+		 * Initializes a stream reading a segment from the start.
+		 *
+		 * @param segment the segment to read from
+		 */
+		public SegmentInputStream(MemorySegment segment) {
+			this.segment = segment;
+			this.position = 0;
+		}
+
+		@Override
+		public int read() {
+			return position < segment.byteSize() ? segment.get(ValueLayout.JAVA_BYTE, position++) & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (length == 0) {
+				return 0;
+			}
+
+			long remaining = segment.byteSize() - position;
+			if (remaining <= 0) {
+				return -1;
+			}
+
+			int count = (int) Math.min(length, remaining);
+			MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, position, bytes, offset, count);
+			position += count;
+			return count;
+		}
+	}
+}
@@ -2,8 +2,21 @@ package edu.usfca.cs272;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 /**
  * Class for the multithreaded building of the inverted index.
@@ -13,56 +26,469 @@ import java.util.ArrayList;
  */
 public class MultiThreadBuilder {
 
+	/** Files larger than this many bytes are split into ranges of about this size that are processed in parallel. */
+	public static final long SPLIT_SIZE = 64L * 1024 * 1024;
+
+	/** Logger used for this class. */
+	private static final Logger log = LogManager.getLogger();
+
 	/**
 	 * Builds the inverted index using multithreading such that a worker threads processes a single file.
+	 * Files are queued as soon as they are found, and each subdirectory is walked by its own task, so
+	 * parsing starts right away and overlaps with the rest of the walk. Each file task processes the
+	 * largest file found so far that has not been started, so a huge file does not end up as the last
+	 * thing left to do. The time taken by each file is logged at the debug level.
+	 *
+	 * <p>
+	 * Each file is added into a shard borrowed from a pool for just that add, so the build
+	 * takes no locks per file. Since no thread waits while holding a shard, there are only
+	 * ever about as many shards as threads adding at once, even when every task runs on
+	 * its own virtual thread. Once every file is done, the shards are merged in pairs in parallel until
+	 * one is left, which is added to the index with a single lock.
+	 *
+	 * <p>
+	 * The first file or directory that cannot be read fails the build: the tasks that
+	 * have not started are cancelled and the index is left unchanged rather than
+	 * holding only part of the files.
 	 *
 	 * @param index the thread safe index
 	 * @param directory the path containing files
 	 * @param queue the work queue to use
-	 * @throws IOException if an I/O error occurs
+	 * @throws IOException if an I/O error occurs while reading any file or directory
 	 */
 	public static void buildInvertedIndex(ThreadSafeIndex index, Path directory, WorkQueue queue) throws IOException {
-		ArrayList<Path> files = DirectoryTraverser.getTextFiles(directory);
+		Build build = new Build(index, queue, directory);
 
-		for (Path file : files) {
-			queue.execute(new Task(file, index));
+		try (WorkQueue.TaskGroup group = build.group) {
+			if (Files.isDirectory(directory)) {
+				traverse(directory, build);
+			}
+			else {
+				build.add(directory);
+			}
+			group.await();
+		}
+		catch (UncheckedIOException e) {
+			IOException cause = e.getCause();
+			for (Throwable other : e.getSuppressed()) {
+				cause.addSuppressed(other);
+			}
+			throw cause;
 		}
-		queue.finish();
+		merge(build);
 	}
 
 	/**
-	 * Class that assigns work to a thread.
+	 * Merges the shards of a finished build into its index. Pairs of shards are
+	 * merged in parallel in rounds, halving the number of shards each round.
+	 *
+	 * @param build the finished build
 	 */
-	private static class Task implements Runnable {
+	private static void merge(Build build) {
+		ArrayList<InvertedIndex> shards = new ArrayList<>(build.shards);
 
-		/**The file to process*/
-		private final Path file;
+		while (shards.size() > 1) {
+			ArrayList<InvertedIndex> merged = new ArrayList<>();
+			WorkQueue.TaskGroup round = build.queue.group(build.group.getName() + " merge");
+
+			for (int i = 0; i + 1 < shards.size(); i += 2) {
+				InvertedIndex first = shards.get(i);
+				InvertedIndex second = shards.get(i + 1);
+				round.execute(() -> first.addAll(second));
+				merged.add(first);
+			}
+
+			if (shards.size() % 2 == 1) {
+				merged.add(shards.get(shards.size() - 1));
+			}
+
+			round.await();
+			shards = merged;
+		}
+
+		if (!shards.isEmpty()) {
+			build.index.addAll(shards.get(0));
+		}
+		build.shards.clear();
+		build.idle.clear();
+	}
+
+	/**
+	 * Lists a directory, adding every text file to the build and queueing a task for every
+	 * subdirectory in it.
+	 *
+	 * @param directory the directory to list
+	 * @param build the build to add to
+	 * @throws IOException if an I/O error occurs
+	 *
+	 * @see DirectoryTraverser#isTextfile(Path)
+	 */
+	private static void traverse(Path directory, Build build) throws IOException {
+		try (DirectoryStream<Path> listing = Files.newDirectoryStream(directory)) {
+			for (Path path : listing) {
+				if (Files.isDirectory(path)) {
+					build.group.execute(new DirectoryTask(path, build));
+				}
+				else if (DirectoryTraverser.isTextfile(path)) {
+					build.add(path);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds where to split a large file into ranges of about {@link #SPLIT_SIZE} bytes. Every range
+	 * after the first starts just after a line break, so no line is split across ranges.
+	 *
+	 * @param file the file to split
+	 * @param size the size of the file in bytes
+	 * @return the byte offsets where each range starts, followed by the size of the file
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static long[] split(Path file, long size) throws IOException {
+		int ranges = (int) ((size + SPLIT_SIZE - 1) / SPLIT_SIZE);
+		long[] bounds = new long[ranges + 1];
+		int count = 1;
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(8192);
+
+			for (int i = 1; i < ranges; i++) {
+				long bound = nextLine(channel, buffer, Math.max(size / ranges * i, bounds[count - 1]));
+				if (bound >= size) {
+					break;
+				}
+				bounds[count++] = bound;
+			}
+		}
+
+		bounds[count++] = size;
+		return Arrays.copyOf(bounds, count);
+	}
+
+	/**
+	 * Finds the start of the first line that begins after a byte offset.
+	 *
+	 * @param channel the channel to read from
+	 * @param buffer the buffer to read into
+	 * @param from the byte offset to start looking from
+	 * @return the offset just past the next line feed, or the size of the file if there is none
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static long nextLine(FileChannel channel, ByteBuffer buffer, long from) throws IOException {
+		long position = from;
+
+		while (true) {
+			buffer.clear();
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				return channel.size();
+			}
+
+			for (int i = 0; i < read; i++) {
+				if (buffer.get(i) == '\n') {
+					return position + i + 1;
+				}
+			}
+			position += read;
+		}
+	}
+
+	/**
+	 * A file waiting to be processed along with its size in bytes.
+	 *
+	 * @param file the file to process
+	 * @param size the size of the file in bytes
+	 */
+	private record SizedFile(Path file, long size) {
+	}
+
+	/**
+	 * The state shared by the tasks of one build: the index, the work queue and the
+	 * group of tasks run on it, the files found but not started yet, largest first,
+	 * and the pool of shards the files are added into.
+	 */
+	private static class Build {
 
 		/**The thread safe inverted index to build*/
 		private final ThreadSafeIndex index;
 
+		/**The work queue to use*/
+		private final WorkQueue queue;
+
+		/**The tasks of this build, which are cancelled once any of them fails*/
+		private final WorkQueue.TaskGroup group;
+
+		/**The files found but not started yet, largest first*/
+		private final PriorityQueue<SizedFile> files;
+
+		/**The indexes the files are added into, which only the thread that borrowed one changes*/
+		private final ConcurrentLinkedQueue<InvertedIndex> shards;
+
+		/**The shards not borrowed by any thread*/
+		private final ConcurrentLinkedQueue<InvertedIndex> idle;
+
 		/**
-		 * Constructor for initializing a new task.
+		 * Constructor for initializing a new build.
 		 *
-		 * @param file the file to process
 		 * @param index the thread safe inverted index
+		 * @param queue the work queue to use
+		 * @param directory the path being built from, used to name the group of tasks
 		 */
-		public Task(Path file, ThreadSafeIndex index) {
-			this.file = file;
+		public Build(ThreadSafeIndex index, WorkQueue queue, Path directory) {
 			this.index = index;
+			this.queue = queue;
+			this.group = queue.group("Build " + directory);
+			this.files = new PriorityQueue<>(Comparator.comparingLong(SizedFile::size).reversed());
+			this.shards = new ConcurrentLinkedQueue<>();
+			this.idle = new ConcurrentLinkedQueue<>();
+		}
+
+		/**
+		 * Adds a local index into a shard that no other thread is using, creating a
+		 * new shard only if every shard is in use.
+		 *
+		 * @param local the local index to add
+		 * @param offset the number to shift each position by
+		 */
+		public void addAll(InvertedIndex local, int offset) {
+			InvertedIndex shard = idle.poll();
+			if (shard == null) {
+				shard = new InvertedIndex();
+				shards.add(shard);
+			}
+
+			try {
+				shard.addAll(local, offset);
+			}
+			finally {
+				idle.add(shard);
+			}
+		}
+
+		/**
+		 * Adds a file to process and queues a task for it. A file whose size cannot
+		 * be read is still added, so the error is reported when it is processed.
+		 *
+		 * @param file the file to add
+		 */
+		public void add(Path file) {
+			long size;
+			try {
+				size = Files.size(file);
+			}
+			catch (IOException e) {
+				size = 0;
+			}
+
+			synchronized (files) {
+				files.add(new SizedFile(file, size));
+			}
+			group.execute(new Task(this));
+		}
+
+		/**
+		 * Removes the largest file that has not been started.
+		 *
+		 * @return the largest file left
+		 */
+		public SizedFile poll() {
+			synchronized (files) {
+				return files.poll();
+			}
+		}
+	}
+
+	/**
+	 * Class that assigns a directory to walk to a thread.
+	 */
+	private static class DirectoryTask implements Runnable {
+
+		/**The directory to walk*/
+		private final Path directory;
+
+		/**The build to add the found files and subdirectories to*/
+		private final Build build;
+
+		/**
+		 * Constructor for initializing a new directory task.
+		 *
+		 * @param directory the directory to walk
+		 * @param build the build to add to
+		 */
+		public DirectoryTask(Path directory, Build build) {
+			this.directory = directory;
+			this.build = build;
+		}
+
+		@Override
+		public void run() {
+			try {
+				traverse(directory, build);
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Class that assigns work to a thread. There is one task for every file added
+	 * to the build, and each processes whichever file is largest when it runs.
+	 */
+	private static class Task implements Runnable {
+
+		/**The build to take a file from*/
+		private final Build build;
+
+		/**
+		 * Constructor for initializing a new task.
+		 *
+		 * @param build the build to take a file from
+		 */
+		public Task(Build build) {
+			this.build = build;
 		}
 
 		@Override
 		public void run() {
+			SizedFile next = build.poll();
+			Path file = next.file();
 			InvertedIndex local = new InvertedIndex();
+			long start = System.nanoTime();
 
 			try {
+				if (next.size() > SPLIT_SIZE) {
+					FileSplit split = new FileSplit(split(file, next.size()), build);
+					for (int i = 0; i < split.ranges(); i++) {
+						build.group.execute(new RangeTask(file, split, i));
+					}
+					log.debug("Split {} ({} bytes) into {} ranges", file, next.size(), split.ranges());
+					return;
+				}
+
 				InvertedIndexBuilder.processFile(file, local);
 			}
 			catch (IOException e) {
 				throw new UncheckedIOException(e);
 			}
-			index.addAll(local);
+			build.addAll(local, 0);
+			log.debug("Indexed {} ({} bytes) in {} ms", file, next.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		}
+	}
+
+	/**
+	 * The ranges of a large file being processed in parallel. Since positions count
+	 * words from the start of the file, each range is added only after every range
+	 * before it, with its positions shifted by the number of words in those earlier
+	 * ranges. A range is added by the thread that finishes it.
+	 */
+	private static class FileSplit {
+
+		/**The byte offsets where each range starts, followed by the size of the file*/
+		private final long[] bounds;
+
+		/**The build the file belongs to*/
+		private final Build build;
+
+		/**The local index of each range that is done but not added yet*/
+		private final InvertedIndex[] locals;
+
+		/**The number of words in each range that is done*/
+		private final int[] words;
+
+		/**The next range to add to the index*/
+		private int next;
+
+		/**The number of words in the ranges added to the index so far*/
+		private int offset;
+
+		/**
+		 * Constructor for initializing a new split.
+		 *
+		 * @param bounds the byte offsets where each range starts, followed by the size of the file
+		 * @param build the build the file belongs to
+		 */
+		public FileSplit(long[] bounds, Build build) {
+			this.bounds = bounds;
+			this.build = build;
+			this.locals = new InvertedIndex[bounds.length - 1];
+			this.words = new int[bounds.length - 1];
+			this.next = 0;
+			this.offset = 0;
+		}
+
+		/**
+		 * Returns the number of ranges.
+		 *
+		 * @return the number of ranges
+		 */
+		public int ranges() {
+			return locals.length;
+		}
+
+		/**
+		 * Records a finished range and adds every finished range that no longer waits
+		 * on an earlier one to the build.
+		 *
+		 * @param range the range that finished
+		 * @param local the local index of the range
+		 * @param count the number of words in the range
+		 */
+		public synchronized void finish(int range, InvertedIndex local, int count) {
+			locals[range] = local;
+			words[range] = count;
+
+			while (next < locals.length && locals[next] != null) {
+				build.addAll(locals[next], offset);
+				offset += words[next];
+				locals[next] = null;
+				next++;
+			}
+		}
+	}
+
+	/**
+	 * Class that assigns one range of a large file to a thread.
+	 */
+	private static class RangeTask implements Runnable {
+
+		/**The file to process*/
+		private final Path file;
+
+		/**The split the range belongs to*/
+		private final FileSplit split;
+
+		/**The range to process*/
+		private final int range;
+
+		/**
+		 * Constructor for initializing a new range task.
+		 *
+		 * @param file the file to process
+		 * @param split the split the range belongs to
+		 * @param range the range to process
+		 */
+		public RangeTask(Path file, FileSplit split, int range) {
+			this.file = file;
+			this.split = split;
+			this.range = range;
+		}
+
+		@Override
+		public void run() {
+			InvertedIndex local = new InvertedIndex();
+			long start = System.nanoTime();
+			int count;
+
+			try {
+				count = InvertedIndexBuilder.processRange(file, split.bounds[range], split.bounds[range + 1], local);
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			split.finish(range, local, count);
+			log.debug("Indexed range {} of {} in {} ms", range + 1, file, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
 		}
 	}
 }
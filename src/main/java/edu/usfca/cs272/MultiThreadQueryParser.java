@@ -1,17 +1,18 @@
 package edu.usfca.cs272;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
-import java.util.function.Function;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiFunction;
 
 import edu.usfca.cs272.InvertedIndex.ResultsMetadata;
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
 
 /**
  * Class for multithreaded searching of the inverted index.
@@ -25,7 +26,7 @@ public class MultiThreadQueryParser implements QueryParserInterface{
 	private final TreeMap<String, ArrayList<ResultsMetadata>> results;
 
 	/**The search function to use*/
-	private final Function<TreeSet<String>, ArrayList<ResultsMetadata>> search;
+	private final BiFunction<QueryTree, Integer, ArrayList<ResultsMetadata>> search;
 
 	/**The work queue to use*/
 	private final WorkQueue queue;
@@ -33,25 +34,65 @@ public class MultiThreadQueryParser implements QueryParserInterface{
 	/**
 	 * Constructor to initialize a multithread query parser
 	 *
-	 * @param index the thread safe index to search from
+	 * @param <T> the type of index, which must be safe to search from multiple threads
+	 * @param index the index to search from, such as a {@link ThreadSafeIndex} or a {@link MappedIndex}
 	 * @param partial the boolean for the type of search
 	 * @param queue the work queue to use
 	 */
-	public MultiThreadQueryParser(ThreadSafeIndex index, boolean partial, WorkQueue queue) {
+	public <T extends InvertedIndex & ConcurrentIndex> MultiThreadQueryParser(T index, boolean partial, WorkQueue queue) {
+		this(index, partial, queue, new ResultCache());
+	}
+
+	/**
+	 * Constructor to initialize a multithread query parser along with the cache of recent search results
+	 *
+	 * @param <T> the type of index, which must be safe to search from multiple threads
+	 * @param index the index to search from, such as a {@link ThreadSafeIndex} or a {@link MappedIndex}
+	 * @param partial the boolean for the type of search
+	 * @param queue the work queue to use
+	 * @param cache the cache of search results to use, which may be shared with other parsers of the same index
+	 *   and type of search
+	 */
+	public <T extends InvertedIndex & ConcurrentIndex> MultiThreadQueryParser(T index, boolean partial, WorkQueue queue, ResultCache cache) {
 		this.results = new TreeMap<>();
-		this.search = partial ? index::partialSearch : index::exactSearch;
+		this.search = (query, k) -> cache.search(query, index, partial, k);
 		this.queue = queue;
 	}
 
+	/**
+	 * Parses every line of a query file in parallel and waits for only those
+	 * searches to finish, so other work sharing the queue does not hold it up.
+	 * A line the queue has no room for is parsed on the calling thread instead.
+	 *
+	 * @param file the file to get each query from
+	 * @throws IOException if an I/O error occurs
+	 */
 	@Override
 	public void parseQuery(Path file) throws IOException {
-		QueryParserInterface.super.parseQuery(file);
-		queue.finish();
+		try (BufferedReader br = Files.newBufferedReader(file);
+				WorkQueue.TaskGroup group = queue.group("Queries " + file)) {
+			String line;
+			while ((line = br.readLine()) != null) {
+				try {
+					group.execute(new Task(line));
+				}
+				catch (RejectedExecutionException e) {
+					parseQuery(line);
+				}
+			}
+			group.await();
+		}
 	}
 
+	/**
+	 * Parses one line on the calling thread, so the results are added by the time
+	 * this returns.
+	 *
+	 * @param line the line to produce a query from
+	 */
 	@Override
 	public void parseQuery(String line) {
-		queue.execute(new Task(line));
+		new Task(line).run();
 	}
 
 	@Override
@@ -63,8 +104,7 @@ public class MultiThreadQueryParser implements QueryParserInterface{
 
 	@Override
 	public boolean hasQuery(String line) {
-		SnowballStemmer stemmer = new SnowballStemmer(SnowballStemmer.ALGORITHM.ENGLISH);
-		String joined = String.join(" ", FileProcessor.uniqueStems(line, stemmer));
+		String joined = QueryTree.parse(line, StemCache.ENGLISH).toString();
 		synchronized (results) {
 			return results.containsKey(joined);
 		}
@@ -79,13 +119,18 @@ public class MultiThreadQueryParser implements QueryParserInterface{
 
 	@Override
 	public List<ResultsMetadata> viewResults(String line) {
-		SnowballStemmer stemmer = new SnowballStemmer(SnowballStemmer.ALGORITHM.ENGLISH);
-		String joined = String.join(" ", FileProcessor.uniqueStems(line, stemmer));
+		String joined = QueryTree.parse(line, StemCache.ENGLISH).toString();
 		synchronized (results) {
 			return hasQuery(line) ? Collections.unmodifiableList(results.get(joined)) : Collections.emptyList();
 		}
 	}
 
+	@Override
+	public List<ResultsMetadata> search(String line, int k) {
+		QueryTree query = QueryTree.parse(line, StemCache.ENGLISH);
+		return query.isEmpty() || k < 1 ? Collections.emptyList() : Collections.unmodifiableList(search.apply(query, k));
+	}
+
 	@Override
 	public String toString() {
 		synchronized (results) {
@@ -112,18 +157,17 @@ public class MultiThreadQueryParser implements QueryParserInterface{
 
 		@Override
 		public void run() {
-			SnowballStemmer stemmer = new SnowballStemmer(SnowballStemmer.ALGORITHM.ENGLISH);
-			TreeSet<String> query = FileProcessor.uniqueStems(line, stemmer);
-			String joined = String.join(" ", query);
+			QueryTree query = QueryTree.parse(line, StemCache.ENGLISH);
+			String joined = query.toString();
 
 			synchronized (results) {
-				if (query.size() == 0 || results.containsKey(joined)) {
+				if (query.isEmpty() || results.containsKey(joined)) {
 					return;
 				}
 				results.put(joined, null);
 			}
 
-			ArrayList<ResultsMetadata> resultsList = search.apply(query);
+			ArrayList<ResultsMetadata> resultsList = search.apply(query, Integer.MAX_VALUE);
 			synchronized (results) {
 				results.put(joined, resultsList);
 			}
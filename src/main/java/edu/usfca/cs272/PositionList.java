@@ -0,0 +1,409 @@
+package edu.usfca.cs272;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A compact, sorted set of word positions. Instead of boxing every position into
+ * a {@link java.util.TreeSet}, the positions are stored as the gaps between
+ * consecutive positions using a variable-byte encoding, so most positions take a
+ * single byte. Positions are expected to be appended in increasing order, which
+ * is how files are read; out-of-order positions are still supported but require
+ * the list to be re-encoded.
+ *
+ * @author Katherine Le
+ *
+ */
+public class PositionList extends AbstractSet<Integer> {
+
+	/** The initial number of bytes allocated for the encoded gaps. */
+	private static final int INITIAL_CAPACITY = 4;
+
+	/** The variable-byte encoded gaps between the second and later positions. */
+	private byte[] bytes;
+
+	/** The number of bytes in use. */
+	private int length;
+
+	/** The number of positions stored. */
+	private int size;
+
+	/** The first (smallest) position stored. */
+	private int first;
+
+	/** The last (largest) position stored, used to compute the next gap. */
+	private int last;
+
+	/**
+	 * Initializes an empty position list.
+	 */
+	public PositionList() {
+		this.bytes = new byte[INITIAL_CAPACITY];
+		this.length = 0;
+		this.size = 0;
+		this.first = 0;
+		this.last = 0;
+	}
+
+	/**
+	 * Adds a position to this list. Positions greater than the last position are
+	 * appended directly; anything else requires the list to be re-encoded.
+	 *
+	 * @param position the position to add
+	 * @return true if the position was not already in the list
+	 */
+	public boolean append(int position) {
+		if (size == 0) {
+			first = position;
+			last = position;
+			size = 1;
+			return true;
+		}
+
+		if (position > last) {
+			writeGap(position - last);
+			last = position;
+			size++;
+			return true;
+		}
+		return position != last && insert(position);
+	}
+
+	@Override
+	public boolean add(Integer position) {
+		return append(position);
+	}
+
+	/**
+	 * Adds all of the positions from another list. If every position in the other
+	 * list comes after the positions in this list, the encoded gaps are copied over
+	 * without decoding them.
+	 *
+	 * @param other the position list to add
+	 * @return true if this list changed
+	 */
+	public boolean addAll(PositionList other) {
+		return addAll(other, 0);
+	}
+
+	/**
+	 * Adds all of the positions from another list after shifting them by an
+	 * offset. Since only the gaps are encoded, shifting the positions does not
+	 * require decoding them when they all come after the positions in this list.
+	 *
+	 * @param other the position list to add
+	 * @param offset the amount to add to every position in the other list
+	 * @return true if this list changed
+	 */
+	public boolean addAll(PositionList other, int offset) {
+		if (other.size == 0) {
+			return false;
+		}
+
+		if (size == 0 || other.first + offset > last) {
+			append(other.first + offset);
+			ensureCapacity(length + other.length);
+			System.arraycopy(other.bytes, 0, bytes, length, other.length);
+			length += other.length;
+			size += other.size - 1;
+			last = other.last + offset;
+			return true;
+		}
+
+		int[] merged = new int[size + other.size];
+		int[] mine = toArray(this);
+		int[] theirs = toArray(other);
+		for (int i = 0; i < theirs.length; i++) {
+			theirs[i] += offset;
+		}
+		int i = 0, j = 0, k = 0;
+
+		while (i < mine.length || j < theirs.length) {
+			int next;
+			if (j == theirs.length || (i < mine.length && mine[i] < theirs[j])) {
+				next = mine[i++];
+			}
+			else if (i == mine.length || theirs[j] < mine[i]) {
+				next = theirs[j++];
+			}
+			else {
+				next = mine[i++];
+				j++;
+			}
+			merged[k++] = next;
+		}
+
+		if (k == size) {
+			return false;
+		}
+		encode(merged, k);
+		return true;
+	}
+
+	/**
+	 * Shrinks the backing array to exactly fit the encoded gaps. Should be called
+	 * once no more positions will be appended.
+	 */
+	public void trimToSize() {
+		if (bytes.length > length) {
+			bytes = Arrays.copyOf(bytes, length);
+		}
+	}
+
+	/**
+	 * Returns the smallest position in this list.
+	 *
+	 * @return the first position
+	 * @throws NoSuchElementException if the list is empty
+	 */
+	public int first() {
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		return first;
+	}
+
+	/**
+	 * Returns the largest position in this list.
+	 *
+	 * @return the last position
+	 * @throws NoSuchElementException if the list is empty
+	 */
+	public int last() {
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		return last;
+	}
+
+	/**
+	 * Checks if the position is in this list. Decodes the gaps until the position
+	 * is found or passed.
+	 *
+	 * @param position the position to look for
+	 * @return true if the position is in this list
+	 */
+	public boolean contains(int position) {
+		if (size == 0 || position < first || position > last) {
+			return false;
+		}
+		if (position == first || position == last) {
+			return true;
+		}
+
+		PositionIterator iterator = new PositionIterator();
+		while (iterator.hasNext()) {
+			int next = iterator.nextInt();
+			if (next >= position) {
+				return next == position;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return o instanceof Integer position && contains(position.intValue());
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public PositionIterator iterator() {
+		return new PositionIterator();
+	}
+
+	/**
+	 * Writes this list in its encoded form: the number of positions, the first and
+	 * last positions, the number of encoded bytes, and then the encoded gaps.
+	 *
+	 * @param out the output to write to
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(size);
+		out.writeInt(first);
+		out.writeInt(last);
+		out.writeInt(length);
+		out.write(bytes, 0, length);
+	}
+
+	/**
+	 * Reads a list written by {@link #write(DataOutput)}.
+	 *
+	 * @param in the input to read from
+	 * @return the position list that was read
+	 * @throws IOException if an I/O error occurs or the input is not a valid list
+	 */
+	public static PositionList read(DataInput in) throws IOException {
+		PositionList list = new PositionList();
+		list.size = in.readInt();
+		list.first = in.readInt();
+		list.last = in.readInt();
+		list.length = in.readInt();
+
+		if (list.size < 0 || list.length < 0 || (list.size <= 1 && list.length > 0)) {
+			throw new IOException("Invalid position list of size " + list.size);
+		}
+
+		list.bytes = new byte[list.length];
+		in.readFully(list.bytes);
+		return list;
+	}
+
+	/**
+	 * Decodes the positions in a list into a new sorted array.
+	 *
+	 * @param list the list to decode
+	 * @return the positions in increasing order
+	 */
+	public static int[] toArray(PositionList list) {
+		int[] positions = new int[list.size];
+		PositionIterator iterator = list.iterator();
+
+		for (int i = 0; i < positions.length; i++) {
+			positions[i] = iterator.nextInt();
+		}
+		return positions;
+	}
+
+	/**
+	 * Inserts a position that falls before the last position by decoding the list,
+	 * inserting the position in order, and encoding it again.
+	 *
+	 * @param position the position to insert
+	 * @return true if the position was not already in the list
+	 */
+	private boolean insert(int position) {
+		int[] positions = toArray(this);
+		int found = Arrays.binarySearch(positions, position);
+
+		if (found >= 0) {
+			return false;
+		}
+
+		int insertion = -found - 1;
+		int[] inserted = new int[positions.length + 1];
+		System.arraycopy(positions, 0, inserted, 0, insertion);
+		inserted[insertion] = position;
+		System.arraycopy(positions, insertion, inserted, insertion + 1, positions.length - insertion);
+		encode(inserted, inserted.length);
+		return true;
+	}
+
+	/**
+	 * Replaces the contents of this list with the first count sorted positions.
+	 *
+	 * @param positions the sorted positions without duplicates
+	 * @param count the number of positions to use
+	 */
+	private void encode(int[] positions, int count) {
+		bytes = new byte[Math.max(INITIAL_CAPACITY, count)];
+		length = 0;
+		size = 0;
+
+		for (int i = 0; i < count; i++) {
+			append(positions[i]);
+		}
+	}
+
+	/**
+	 * Writes the gap to the next position using a variable-byte encoding, where the
+	 * high bit of each byte marks that more bytes follow. The gap is treated as an
+	 * unsigned value.
+	 *
+	 * @param gap the gap between the last position and the next
+	 */
+	private void writeGap(int gap) {
+		ensureCapacity(length + 5);
+
+		while ((gap & ~0x7F) != 0) {
+			bytes[length++] = (byte) ((gap & 0x7F) | 0x80);
+			gap >>>= 7;
+		}
+		bytes[length++] = (byte) gap;
+	}
+
+	/**
+	 * Grows the backing array if needed to hold at least the given number of bytes.
+	 *
+	 * @param capacity the number of bytes needed
+	 */
+	private void ensureCapacity(int capacity) {
+		if (capacity > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length + (bytes.length >> 1)));
+		}
+	}
+
+	/**
+	 * Iterates through the positions in increasing order by decoding the gaps.
+	 */
+	public class PositionIterator implements Iterator<Integer> {
+
+		/** The number of positions returned so far. */
+		private int returned;
+
+		/** The offset of the next gap to decode. */
+		private int offset;
+
+		/** The last position returned. */
+		private int current;
+
+		/**
+		 * Initializes an iterator at the start of the list.
+		 */
+		private PositionIterator() {
+			this.returned = 0;
+			this.offset = 0;
+			this.current = 0;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return returned < size;
+		}
+
+		/**
+		 * Returns the next position without boxing it.
+		 *
+		 * @return the next position
+		 * @throws NoSuchElementException if there are no more positions
+		 */
+		public int nextInt() {
+			if (returned >= size) {
+				throw new NoSuchElementException();
+			}
+
+			if (returned++ == 0) {
+				current = first;
+				return current;
+			}
+
+			int gap = 0;
+			int shift = 0;
+			byte b;
+
+			do {
+				b = bytes[offset++];
+				gap |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+
+			current += gap;
+			return current;
+		}
+
+		@Override
+		public Integer next() {
+			return nextInt();
+		}
+	}
+}
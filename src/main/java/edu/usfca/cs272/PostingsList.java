@@ -0,0 +1,374 @@
+package edu.usfca.cs272;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The postings of a single word: the IDs of the documents the word appears in,
+ * kept sorted, along with the positions of the word in each document. Documents
+ * are usually added in increasing ID order, in which case they are appended.
+ *
+ * @author Katherine Le
+ *
+ */
+public class PostingsList {
+
+	/** The initial number of documents allocated. */
+	private static final int INITIAL_CAPACITY = 2;
+
+	/** The sorted document IDs. */
+	private int[] documents;
+
+	/** The positions of the word in each document, parallel to the IDs. */
+	private PositionList[] positions;
+
+	/** The number of documents stored. */
+	private int size;
+
+	/**
+	 * The largest unweighted score of this word in any document, or null if it has
+	 * not been computed since the postings last changed.
+	 */
+	private volatile Bound bound;
+
+	/**
+	 * The number of documents the word appears in across the whole index, or -1 if
+	 * this list holds every one of them.
+	 */
+	private int frequency;
+
+	/**
+	 * Initializes an empty postings list.
+	 */
+	public PostingsList() {
+		this.documents = new int[INITIAL_CAPACITY];
+		this.positions = new PositionList[INITIAL_CAPACITY];
+		this.size = 0;
+		this.bound = null;
+		this.frequency = -1;
+	}
+
+	/**
+	 * Returns the number of documents in this postings list.
+	 *
+	 * @return the number of documents
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the document ID at an index in this list.
+	 *
+	 * @param index the index between 0 and {@link #size()}
+	 * @return the document ID
+	 */
+	public int getDocument(int index) {
+		return documents[index];
+	}
+
+	/**
+	 * Returns the positions at an index in this list.
+	 *
+	 * @param index the index between 0 and {@link #size()}
+	 * @return the positions in the document at that index
+	 */
+	public PositionList getPositions(int index) {
+		return positions[index];
+	}
+
+	/**
+	 * Returns the positions for a document.
+	 *
+	 * @param document the document ID
+	 * @return the positions or null if the document is not in this list
+	 */
+	public PositionList get(int document) {
+		int index = indexOf(document);
+		return index < 0 ? null : positions[index];
+	}
+
+	/**
+	 * Returns the positions for a document, adding an empty position list if the
+	 * document is not in this list yet.
+	 *
+	 * @param document the document ID
+	 * @return the positions in the document
+	 */
+	public PositionList getOrCreate(int document) {
+		int index = indexOf(document);
+		clearBound();
+
+		if (index < 0) {
+			index = -index - 1;
+			insert(index, document, new PositionList());
+		}
+		return positions[index];
+	}
+
+	/**
+	 * Adds a document after the last document in this list. The positions are
+	 * shared with the caller instead of copied.
+	 *
+	 * @param document the document ID, which must be greater than any in this list
+	 * @param list the positions in the document
+	 * @throws IllegalArgumentException if the document is not after the last document
+	 */
+	public void append(int document, PositionList list) {
+		if (size > 0 && document <= documents[size - 1]) {
+			throw new IllegalArgumentException("Document " + document + " is not after " + documents[size - 1]);
+		}
+
+		clearBound();
+		insert(size, document, list);
+	}
+
+	/**
+	 * Adds all of the postings from another list, translating its document IDs
+	 * through the provided mapping. Positions for documents already in this list
+	 * are merged.
+	 *
+	 * @param other the postings to add
+	 * @param mapping the document ID in this index for each document ID in the
+	 *   other index
+	 */
+	public void addAll(PostingsList other, int[] mapping) {
+		addAll(other, mapping, 0);
+	}
+
+	/**
+	 * Adds all of the postings from another list, translating its document IDs
+	 * through the provided mapping and shifting its positions by an offset.
+	 * Positions for documents already in this list are merged.
+	 *
+	 * @param other the postings to add
+	 * @param mapping the document ID in this index for each document ID in the
+	 *   other index
+	 * @param offset the amount to add to every position in the other list
+	 */
+	public void addAll(PostingsList other, int[] mapping, int offset) {
+		clearBound();
+
+		for (int i = 0; i < other.size; i++) {
+			int document = mapping[other.documents[i]];
+			int index = indexOf(document);
+
+			if (index < 0) {
+				PositionList list = other.positions[i];
+				if (offset != 0) {
+					list = new PositionList();
+					list.addAll(other.positions[i], offset);
+				}
+				list.trimToSize();
+				insert(-index - 1, document, list);
+			}
+			else {
+				positions[index].addAll(other.positions[i], offset);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of documents the word appears in across the whole index,
+	 * which is more than {@link #size()} for a list restricted to some of them.
+	 *
+	 * @return the document frequency of the word
+	 *
+	 * @see #restrict(PostingsList)
+	 */
+	public int getFrequency() {
+		return frequency < 0 ? size : frequency;
+	}
+
+	/**
+	 * Returns a list of only the documents in this list that are also in another,
+	 * sharing the positions with this list. The new list keeps the document
+	 * frequency of this list, so the word is weighted the same when scored.
+	 *
+	 * @param other the documents to keep
+	 * @return the postings of the documents in both lists
+	 */
+	public PostingsList restrict(PostingsList other) {
+		PostingsList restricted = new PostingsList();
+		int cursor = 0;
+
+		for (int i = 0; i < size && cursor < other.size; i++) {
+			cursor = other.advance(cursor, documents[i]);
+
+			if (cursor < other.size && other.documents[cursor] == documents[i]) {
+				restricted.append(documents[i], positions[i]);
+			}
+		}
+
+		restricted.frequency = getFrequency();
+		return restricted;
+	}
+
+	/**
+	 * Finds the first index at or after a starting index whose document ID is at
+	 * least the target. Gallops forward from the start and then binary searches, so
+	 * skipping over a long run of documents is cheap.
+	 *
+	 * @param from the index to start from
+	 * @param document the document ID to advance to
+	 * @return the index of the first document ID not less than the target, or
+	 *   {@link #size()} if there is none
+	 */
+	public int advance(int from, int document) {
+		if (from >= size || documents[from] >= document) {
+			return from;
+		}
+
+		int low = from;
+		int step = 1;
+
+		while (low + step < size && documents[low + step] < document) {
+			low += step;
+			step <<= 1;
+		}
+
+		int found = Arrays.binarySearch(documents, low + 1, Math.min(size, low + step + 1), document);
+		return found < 0 ? -found - 1 : found;
+	}
+
+	/**
+	 * Returns an upper bound on the score this word can add to any document before
+	 * it is multiplied by the weight of the word. The bound is cached until the
+	 * postings change or a different scorer is used.
+	 *
+	 * @param scorer the scorer used to score documents
+	 * @return the largest unweighted score of this word in any document
+	 *
+	 * @see Scorer#score(int, int, double)
+	 */
+	public double getBound(Scorer scorer) {
+		Bound cached = bound;
+
+		if (cached == null || cached.scorer != scorer) {
+			double value = 0;
+			for (int i = 0; i < size; i++) {
+				value = Math.max(value, scorer.score(positions[i].size(), documents[i], 1));
+			}
+			cached = new Bound(scorer, value);
+			bound = cached;
+		}
+		return cached.value;
+	}
+
+	/**
+	 * Shrinks the backing arrays and the position lists to exactly fit their
+	 * contents. Should be called once no more documents will be added.
+	 */
+	public void trimToSize() {
+		if (documents.length > size) {
+			documents = Arrays.copyOf(documents, size);
+			positions = Arrays.copyOf(positions, size);
+		}
+
+		for (int i = 0; i < size; i++) {
+			positions[i].trimToSize();
+		}
+	}
+
+	/**
+	 * Writes the number of documents followed by each document ID and its positions.
+	 *
+	 * @param out the output to write to
+	 * @throws IOException if an I/O error occurs
+	 *
+	 * @see PositionList#write(DataOutput)
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(size);
+		for (int i = 0; i < size; i++) {
+			out.writeInt(documents[i]);
+			positions[i].write(out);
+		}
+	}
+
+	/**
+	 * Reads a postings list written by {@link #write(DataOutput)}.
+	 *
+	 * @param in the input to read from
+	 * @return the postings list that was read
+	 * @throws IOException if an I/O error occurs or the input is not a valid list
+	 */
+	public static PostingsList read(DataInput in) throws IOException {
+		int size = in.readInt();
+		if (size < 0) {
+			throw new IOException("Invalid postings list of size " + size);
+		}
+
+		PostingsList list = new PostingsList();
+		list.documents = new int[size];
+		list.positions = new PositionList[size];
+
+		for (int i = 0; i < size; i++) {
+			list.documents[i] = in.readInt();
+			list.positions[i] = PositionList.read(in);
+		}
+		list.size = size;
+		return list;
+	}
+
+	/**
+	 * Finds the index of a document ID. Checks the last document first, since that
+	 * is the one most often being added to.
+	 *
+	 * @param document the document ID to find
+	 * @return the index of the document, or (-(insertion point) - 1) if not found
+	 *
+	 * @see Arrays#binarySearch(int[], int, int, int)
+	 */
+	private int indexOf(int document) {
+		if (size == 0 || document > documents[size - 1]) {
+			return -size - 1;
+		}
+		if (document == documents[size - 1]) {
+			return size - 1;
+		}
+		return Arrays.binarySearch(documents, 0, size, document);
+	}
+
+	/**
+	 * Forgets the cached bound, since the postings are about to change. Only writes
+	 * the field if a bound was cached, which keeps building the index cheap.
+	 */
+	private void clearBound() {
+		if (bound != null) {
+			bound = null;
+		}
+	}
+
+	/**
+	 * Inserts a document and its positions at an index, shifting later entries.
+	 *
+	 * @param index the index to insert at
+	 * @param document the document ID
+	 * @param list the positions in the document
+	 */
+	private void insert(int index, int document, PositionList list) {
+		if (size == documents.length) {
+			int capacity = documents.length + (documents.length >> 1) + 1;
+			documents = Arrays.copyOf(documents, capacity);
+			positions = Arrays.copyOf(positions, capacity);
+		}
+
+		System.arraycopy(documents, index, documents, index + 1, size - index);
+		System.arraycopy(positions, index, positions, index + 1, size - index);
+		documents[index] = document;
+		positions[index] = list;
+		size++;
+	}
+
+	/**
+	 * A cached score bound along with the scorer it was computed for.
+	 *
+	 * @param scorer the scorer the bound was computed for
+	 * @param value the largest unweighted score of the word in any document
+	 */
+	private record Bound(Scorer scorer, double value) {
+	}
+}
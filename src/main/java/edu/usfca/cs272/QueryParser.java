@@ -7,11 +7,9 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
-import java.util.function.Function;
+import java.util.function.BiFunction;
 
 import edu.usfca.cs272.InvertedIndex.ResultsMetadata;
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
 
 /**
  * Class parsing a file into query lines and performing a search on the inverted index. Populates the data structure of search results used for
@@ -23,10 +21,10 @@ import opennlp.tools.stemmer.snowball.SnowballStemmer;
 public class QueryParser implements QueryParserInterface{
 
 	/**The search function that performs a search on the inverted index*/
-	private final Function<TreeSet<String>, ArrayList<ResultsMetadata>> search;
+	private final BiFunction<QueryTree, Integer, ArrayList<ResultsMetadata>> search;
 
 	/**The stemmer to use to process a line in a file*/
-	private final SnowballStemmer stemmer;
+	private final StemCache stemmer;
 
 	/** Initializes the data structure used to store query search results*/
 	private final TreeMap<String, ArrayList<ResultsMetadata>> results;
@@ -38,17 +36,29 @@ public class QueryParser implements QueryParserInterface{
 	 * @param partial boolean for checking if there is a partial flag
 	 */
 	public QueryParser(InvertedIndex data, boolean partial) {
-		this.search = partial ? data::partialSearch : data::exactSearch;
-		this.stemmer = new SnowballStemmer(SnowballStemmer.ALGORITHM.ENGLISH);
+		this(data, partial, new ResultCache());
+	}
+
+	/**
+	 * Constructor to initialize the search function to use along with the cache of
+	 * recent search results
+	 *
+	 * @param data the inverted index
+	 * @param partial boolean for checking if there is a partial flag
+	 * @param cache the cache of search results to use
+	 */
+	public QueryParser(InvertedIndex data, boolean partial, ResultCache cache) {
+		this.search = (query, k) -> cache.search(query, data, partial, k);
+		this.stemmer = StemCache.ENGLISH;
 		this.results = new TreeMap<>();
 	}
 
 	@Override
 	public void parseQuery(String line) {
-		TreeSet<String> query = FileProcessor.uniqueStems(line, stemmer);
-		String joined = String.join(" ", query);
-		if (query.size() > 0 && !results.containsKey(joined)) {
-			ArrayList<ResultsMetadata> resultsList = search.apply(query);
+		QueryTree query = QueryTree.parse(line, stemmer);
+		String joined = query.toString();
+		if (!query.isEmpty() && !results.containsKey(joined)) {
+			ArrayList<ResultsMetadata> resultsList = search.apply(query, Integer.MAX_VALUE);
 			results.put(joined, resultsList);
 		}
 	}
@@ -60,7 +70,7 @@ public class QueryParser implements QueryParserInterface{
 
 	@Override
 	public boolean hasQuery(String line) {
-		String joined = String.join(" ", FileProcessor.uniqueStems(line, stemmer));
+		String joined = QueryTree.parse(line, stemmer).toString();
 		return results.containsKey(joined);
 	}
 
@@ -71,10 +81,16 @@ public class QueryParser implements QueryParserInterface{
 
 	@Override
 	public List<ResultsMetadata> viewResults(String line) {
-		String joined = String.join(" ", FileProcessor.uniqueStems(line, stemmer));
+		String joined = QueryTree.parse(line, stemmer).toString();
 		return hasQuery(line) ? Collections.unmodifiableList(results.get(joined)) : Collections.emptyList();
 	}
 
+	@Override
+	public List<ResultsMetadata> search(String line, int k) {
+		QueryTree query = QueryTree.parse(line, stemmer);
+		return query.isEmpty() || k < 1 ? Collections.emptyList() : Collections.unmodifiableList(search.apply(query, k));
+	}
+
 	@Override
 	public String toString() {
 		return results.toString();
@@ -91,4 +91,32 @@ public interface QueryParserInterface {
 	 */
 	public List<ResultsMetadata> viewResults(String line);
 
+	/**
+	 * Searches for a line on the calling thread and returns the results directly. Unlike
+	 * {@link #parseQuery(String)}, the results are not added into the data structure for
+	 * search results and no work is queued, so it is safe to call from many request threads
+	 * at once.
+	 *
+	 * @param line the line to produce a query from
+	 * @return an unmodifiable list of ResultsMetadata or an empty list if the line has no query
+	 *
+	 * @see #search(String, int)
+	 */
+	public default List<ResultsMetadata> search(String line) {
+		return search(line, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Searches for a line on the calling thread and returns only the best k results, such as
+	 * the results for a page of a search. Documents that cannot make it into the best k are not
+	 * ranked, so asking for fewer results makes the search cheaper.
+	 *
+	 * @param line the line to produce a query from
+	 * @param k the maximum number of results to return
+	 * @return an unmodifiable list of the best ResultsMetadata or an empty list if the line has no query
+	 *
+	 * @see InvertedIndex#search(QueryTree, boolean, int)
+	 */
+	public List<ResultsMetadata> search(String line, int k);
+
 }
@@ -0,0 +1,1032 @@
+package edu.usfca.cs272;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import opennlp.tools.stemmer.Stemmer;
+
+/**
+ * A parsed search query. Besides single words, a query may contain quoted
+ * phrases such as {@code "quick brown fox"}, whose words must appear next to
+ * each other in order, and proximity clauses such as {@code quick NEAR/3 fox},
+ * whose operands must appear within the given number of words of each other.
+ *
+ * <p>
+ * Clauses next to each other or joined by {@code OR} match a document if any of
+ * them does, clauses joined by {@code AND} only if all of them do, and a clause
+ * after {@code NOT} removes the documents it matches from the clauses around
+ * it. {@code AND} binds tighter than {@code OR}, and parentheses group clauses.
+ * A query of only single words parses the same way it always has.
+ *
+ * <p>
+ * Phrases and proximity clauses are evaluated into postings lists of their own
+ * by intersecting the postings of their words, first by document and then by
+ * position. The documents matched by {@code AND} are found by intersecting the
+ * doc-ID-sorted postings starting from the rarest clause, galloping through the
+ * others. The matched documents are ranked by the words, phrases, and proximity
+ * clauses of the query that are not negated.
+ *
+ * @author Katherine Le
+ *
+ */
+public class QueryTree {
+
+	/** Regular expression that matches a quoted phrase, a parenthesis, or any other run of non-whitespace. */
+	private static final Pattern TOKEN_REGEX = Pattern.compile("(?U)\"([^\"]*)\"?|([()])|([^\\s\"()]+)");
+
+	/** Regular expression that matches an operator. */
+	private static final Pattern OPERATOR_REGEX = Pattern.compile("AND|OR|NOT|NEAR/\\d{1,9}");
+
+	/** The clauses of the query, which match a document if any of them does. */
+	private final Or root;
+
+	/** Whether any clause is joined by {@code AND} or negated, so the matched documents must be found first. */
+	private final boolean filtered;
+
+	/**
+	 * Initializes a query.
+	 *
+	 * @param root the clauses of the query
+	 * @param filtered whether any clause is joined by {@code AND} or negated
+	 */
+	private QueryTree(Or root, boolean filtered) {
+		this.root = root;
+		this.filtered = filtered;
+	}
+
+	/**
+	 * Parses a line into a query. Every word is cleaned and stemmed as it would be
+	 * for a plain query, so a line without quotes or operators parses into the same
+	 * sorted, unique stems. Operators without the operands they need and unmatched
+	 * parentheses are ignored.
+	 *
+	 * @param line the line to parse
+	 * @param stemmer the stemmer to use
+	 * @return the parsed query
+	 *
+	 * @see FileProcessor#uniqueStems(String, Stemmer)
+	 */
+	public static QueryTree parse(String line, Stemmer stemmer) {
+		Parser parser = new Parser(tokenize(line, stemmer));
+		Or root = parser.parseOr(false);
+		return new QueryTree(root, parser.filtered);
+	}
+
+	/**
+	 * Splits a line into operands and operators. Quoted text becomes a phrase, or a
+	 * single word if it only has one word, and any other run of non-whitespace
+	 * becomes a word unless it is an operator, a parenthesis, or has no letters.
+	 *
+	 * @param line the line to split
+	 * @param stemmer the stemmer to use
+	 * @return the operands and operators in order
+	 */
+	private static ArrayList<Token> tokenize(String line, Stemmer stemmer) {
+		ArrayList<Token> tokens = new ArrayList<>();
+		Matcher matcher = TOKEN_REGEX.matcher(line);
+		FileProcessor.Tokenizer tokenizer = new FileProcessor.Tokenizer();
+
+		while (matcher.find()) {
+			if (matcher.group(1) != null) {
+				ArrayList<String> words = new ArrayList<>();
+				FileProcessor.addStems(matcher.group(1), stemmer, words, tokenizer);
+				if (words.size() == 1) {
+					tokens.add(new Token(new Term(words.get(0)), null));
+				}
+				else if (words.size() > 1) {
+					tokens.add(new Token(new Phrase(words), null));
+				}
+			}
+			else if (matcher.group(2) != null || OPERATOR_REGEX.matcher(matcher.group(3)).matches()) {
+				tokens.add(new Token(null, matcher.group(matcher.group(2) != null ? 2 : 3)));
+			}
+			else {
+				ArrayList<String> words = new ArrayList<>();
+				FileProcessor.addStems(matcher.group(3), stemmer, words, tokenizer);
+
+				for (String word : words) {
+					tokens.add(new Token(new Term(word), null));
+				}
+			}
+		}
+		return tokens;
+	}
+
+	/**
+	 * Checks if the query has no clauses.
+	 *
+	 * @return true if the query is empty
+	 */
+	public boolean isEmpty() {
+		return root.clauses.isEmpty();
+	}
+
+	/**
+	 * Returns the postings to rank for this query: the postings of every clause
+	 * that is not negated, restricted to the documents the whole query matches.
+	 * Single words are looked up in the index, and for a partial search every word
+	 * starting with them is used; the words in phrases and proximity clauses are
+	 * always matched exactly.
+	 *
+	 * @param index the index to search
+	 * @param partial true to match single words as prefixes
+	 * @return the postings of each clause
+	 */
+	List<PostingsList> postings(InvertedIndex index, boolean partial) {
+		Search search = new Search(index, partial);
+		PostingsList matched = filtered ? search.evaluate(root) : null;
+
+		TreeMap<String, Node> leaves = new TreeMap<>();
+		root.collect(leaves);
+		ArrayList<PostingsList> lists = new ArrayList<>(leaves.size());
+
+		for (Node leaf : leaves.values()) {
+			if (partial && leaf instanceof Term term) {
+				for (PostingsList postings : index.getPrefixPostings(term.word)) {
+					add(lists, postings, matched);
+				}
+			}
+			else {
+				add(lists, search.evaluate(leaf), matched);
+			}
+		}
+		return lists;
+	}
+
+	/**
+	 * Adds postings to a list if they match any documents, keeping only the
+	 * documents that the whole query matches. The restricted postings are still
+	 * weighted by the number of documents the clause matches on its own.
+	 *
+	 * @param lists the list to add to
+	 * @param postings the postings to add
+	 * @param matched the documents the query matches, or null to keep every document
+	 *
+	 * @see PostingsList#restrict(PostingsList)
+	 */
+	private static void add(List<PostingsList> lists, PostingsList postings, PostingsList matched) {
+		if (matched != null) {
+			postings = postings.restrict(matched);
+		}
+
+		if (postings.size() > 0) {
+			lists.add(postings);
+		}
+	}
+
+	/**
+	 * Returns the text of the query with its clauses in sorted order, which is the
+	 * same for every line that parses into the same query.
+	 */
+	@Override
+	public String toString() {
+		return root.clauses.size() == 1 ? root.clauses.firstKey() : root.toString();
+	}
+
+	/**
+	 * Finds the first index at or after a starting index whose value is at least
+	 * the target by galloping forward and then binary searching.
+	 *
+	 * @param values the sorted values to search
+	 * @param from the index to start from
+	 * @param target the value to look for
+	 * @return the index of the first value not less than the target, or the length
+	 *   of the array if there is none
+	 */
+	private static int gallop(int[] values, int from, int target) {
+		if (from >= values.length || values[from] >= target) {
+			return from;
+		}
+
+		int low = from;
+		int step = 1;
+
+		while (low + step < values.length && values[low + step] < target) {
+			low += step;
+			step <<= 1;
+		}
+
+		int found = Arrays.binarySearch(values, low + 1, Math.min(values.length, low + step + 1), target);
+		return found < 0 ? -found - 1 : found;
+	}
+
+	/**
+	 * Merges postings into the documents in any of them, along with every position
+	 * in each document. Pairs of lists are merged until one is left.
+	 *
+	 * @param lists the postings to merge
+	 * @param start the first list to merge
+	 * @param end the list just past the last one to merge
+	 * @return the merged postings
+	 */
+	private static PostingsList union(List<PostingsList> lists, int start, int end) {
+		if (end - start == 0) {
+			return new PostingsList();
+		}
+		if (end - start == 1) {
+			return lists.get(start);
+		}
+
+		int middle = (start + end) >>> 1;
+		PostingsList first = union(lists, start, middle);
+		PostingsList second = union(lists, middle, end);
+		PostingsList result = new PostingsList();
+
+		int i = 0;
+		int j = 0;
+
+		while (i < first.size() || j < second.size()) {
+			int a = i < first.size() ? first.getDocument(i) : Integer.MAX_VALUE;
+			int b = j < second.size() ? second.getDocument(j) : Integer.MAX_VALUE;
+
+			if (a < b) {
+				result.append(a, first.getPositions(i++));
+			}
+			else if (b < a) {
+				result.append(b, second.getPositions(j++));
+			}
+			else {
+				PositionList positions = new PositionList();
+				positions.addAll(first.getPositions(i++));
+				positions.addAll(second.getPositions(j++));
+				result.append(a, positions);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Removes the documents in any of the excluded postings.
+	 *
+	 * @param postings the postings to remove documents from
+	 * @param excluded the postings of the documents to remove
+	 * @return the postings without the excluded documents
+	 */
+	private static PostingsList exclude(PostingsList postings, List<PostingsList> excluded) {
+		if (excluded.isEmpty()) {
+			return postings;
+		}
+
+		PostingsList result = new PostingsList();
+		int[] cursors = new int[excluded.size()];
+
+		for (int i = 0; i < postings.size(); i++) {
+			int document = postings.getDocument(i);
+
+			if (!contains(excluded, cursors, document)) {
+				result.append(document, postings.getPositions(i));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Checks if any of the postings contain a document, advancing each cursor to
+	 * the document. The documents checked must be in increasing order.
+	 *
+	 * @param lists the postings to check
+	 * @param cursors the current index into each postings list
+	 * @param document the document ID to look for
+	 * @return true if any of the postings contain the document
+	 */
+	private static boolean contains(List<PostingsList> lists, int[] cursors, int document) {
+		boolean found = false;
+
+		for (int k = 0; k < lists.size(); k++) {
+			PostingsList list = lists.get(k);
+			cursors[k] = list.advance(cursors[k], document);
+			found |= cursors[k] < list.size() && list.getDocument(cursors[k]) == document;
+		}
+		return found;
+	}
+
+	/**
+	 * An operand or an operator of a line being parsed.
+	 *
+	 * @param operand the operand, or null if this is an operator or a parenthesis
+	 * @param operator the operator or parenthesis, or null if this is an operand
+	 */
+	private record Token(Node operand, String operator) {
+	}
+
+	/**
+	 * Parses operands and operators into clauses by recursive descent. From the
+	 * loosest to the tightest binding, the grammar is:
+	 *
+	 * <pre>
+	 * or      = and { ["OR"] and }
+	 * and     = unary { "AND" unary }
+	 * unary   = "NOT" unary | near
+	 * near    = primary { "NEAR/n" primary }
+	 * primary = word | phrase | "(" or ")"
+	 * </pre>
+	 */
+	private static class Parser {
+
+		/** The operands and operators to parse. */
+		private final List<Token> tokens;
+
+		/** The index of the next token. */
+		private int position;
+
+		/** Whether a clause joined by {@code AND} or a negated clause was parsed. */
+		private boolean filtered;
+
+		/**
+		 * Initializes a parser.
+		 *
+		 * @param tokens the operands and operators to parse
+		 */
+		private Parser(List<Token> tokens) {
+			this.tokens = tokens;
+			this.position = 0;
+			this.filtered = false;
+		}
+
+		/**
+		 * Checks if the next token is an operator.
+		 *
+		 * @param operator the operator to check for
+		 * @return true if the next token is the operator
+		 */
+		private boolean peek(String operator) {
+			return position < tokens.size() && operator.equals(tokens.get(position).operator());
+		}
+
+		/**
+		 * Parses clauses that match a document if any of them does.
+		 *
+		 * @param nested true if inside parentheses, which stops at the closing one
+		 * @return the clauses
+		 */
+		private Or parseOr(boolean nested) {
+			Or or = new Or();
+
+			while (position < tokens.size() && !(nested && peek(")"))) {
+				if (peek("OR") || peek(")")) {
+					position++;
+					continue;
+				}
+
+				Node clause = parseAnd();
+				if (clause != null) {
+					or.add(clause);
+				}
+			}
+			return or;
+		}
+
+		/**
+		 * Parses clauses joined by {@code AND}.
+		 *
+		 * @return the clauses, or null if there are none
+		 */
+		private Node parseAnd() {
+			Node clause = parseUnary();
+			And and = null;
+
+			while (peek("AND")) {
+				position++;
+				Node next = parseUnary();
+
+				if (next == null) {
+					continue;
+				}
+				if (clause == null) {
+					clause = next;
+					continue;
+				}
+
+				if (and == null) {
+					and = new And();
+					and.add(clause);
+				}
+				and.add(next);
+			}
+
+			if (and != null && and.clauses.size() > 1) {
+				filtered = true;
+				return and;
+			}
+			return clause;
+		}
+
+		/**
+		 * Parses a clause that may be negated.
+		 *
+		 * @return the clause, or null if there is none
+		 */
+		private Node parseUnary() {
+			if (peek("NOT")) {
+				position++;
+				Node clause = parseUnary();
+
+				if (clause instanceof Not not) {
+					return not.clause;
+				}
+				if (clause != null) {
+					filtered = true;
+					return new Not(clause);
+				}
+				return null;
+			}
+			return parseNear();
+		}
+
+		/**
+		 * Parses operands joined by proximity operators.
+		 *
+		 * @return the clause, or null if there is none
+		 */
+		private Node parseNear() {
+			Node clause = parsePrimary();
+
+			while (clause != null && position < tokens.size() && tokens.get(position).operator() != null
+					&& tokens.get(position).operator().startsWith("NEAR/")) {
+				int distance = Integer.parseInt(tokens.get(position++).operator().substring(5));
+				Node next = parsePrimary();
+
+				if (next == null) {
+					break;
+				}
+				clause = new Near(clause, next, distance);
+			}
+			return clause;
+		}
+
+		/**
+		 * Parses a word, a phrase, or clauses in parentheses. Skips an operator that
+		 * is missing its operand, but not a closing parenthesis.
+		 *
+		 * @return the clause, or null if there is none
+		 */
+		private Node parsePrimary() {
+			if (position >= tokens.size() || peek(")")) {
+				return null;
+			}
+
+			Token token = tokens.get(position++);
+			if (token.operand() != null) {
+				return token.operand();
+			}
+
+			if (token.operator().equals("(")) {
+				Or or = parseOr(true);
+				if (peek(")")) {
+					position++;
+				}
+				return or.simplify();
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Evaluates the clauses of one search, remembering the postings of each clause
+	 * so a clause is only evaluated once.
+	 */
+	private static class Search {
+
+		/** The index to search. */
+		private final InvertedIndex index;
+
+		/** Whether single words are matched as prefixes. */
+		private final boolean partial;
+
+		/** The postings of each clause evaluated so far. */
+		private final IdentityHashMap<Node, PostingsList> evaluated;
+
+		/** The search that matches single words exactly, or this search if it already does. */
+		private Search exact;
+
+		/**
+		 * Initializes a search.
+		 *
+		 * @param index the index to search
+		 * @param partial whether single words are matched as prefixes
+		 */
+		private Search(InvertedIndex index, boolean partial) {
+			this.index = index;
+			this.partial = partial;
+			this.evaluated = new IdentityHashMap<>();
+			this.exact = partial ? null : this;
+		}
+
+		/**
+		 * Returns the postings of a clause.
+		 *
+		 * @param clause the clause to evaluate
+		 * @return the postings of the clause
+		 */
+		private PostingsList evaluate(Node clause) {
+			PostingsList postings = evaluated.get(clause);
+			if (postings == null) {
+				postings = clause.evaluate(this);
+				evaluated.put(clause, postings);
+			}
+			return postings;
+		}
+
+		/**
+		 * Returns a search over the same index that matches single words exactly.
+		 *
+		 * @return the exact search
+		 */
+		private Search exact() {
+			if (exact == null) {
+				exact = new Search(index, false);
+			}
+			return exact;
+		}
+	}
+
+	/**
+	 * A clause of a query that can be evaluated into postings.
+	 */
+	private interface Node {
+
+		/**
+		 * Evaluates the clause into the documents it matches and the positions it
+		 * matches at in each document.
+		 *
+		 * @param search the search being evaluated
+		 * @return the postings of the clause
+		 */
+		PostingsList evaluate(Search search);
+
+		/**
+		 * Adds the clauses used to rank documents, keyed by their text. These are
+		 * the words, phrases, and proximity clauses that are not negated.
+		 *
+		 * @param leaves the clauses to add to
+		 */
+		default void collect(TreeMap<String, Node> leaves) {
+			leaves.putIfAbsent(toString(), this);
+		}
+	}
+
+	/**
+	 * Clauses that are combined, kept sorted and without duplicates by their text.
+	 */
+	private abstract static class Group implements Node {
+
+		/** The clauses keyed by their text. */
+		protected final TreeMap<String, Node> clauses;
+
+		/**
+		 * Initializes an empty group.
+		 */
+		protected Group() {
+			this.clauses = new TreeMap<>();
+		}
+
+		/**
+		 * Adds a clause to the group, or the clauses of a group of the same kind if
+		 * that does not change which documents are excluded.
+		 *
+		 * @param clause the clause to add
+		 */
+		protected void add(Node clause) {
+			if (clause.getClass() == getClass() && (this instanceof And || ((Group) clause).excluded().isEmpty())) {
+				clauses.putAll(((Group) clause).clauses);
+			}
+			else {
+				clauses.putIfAbsent(clause.toString(), clause);
+			}
+		}
+
+		/**
+		 * Evaluates the clauses that are not negated.
+		 *
+		 * @param search the search being evaluated
+		 * @return the postings of the clauses that are not negated
+		 */
+		protected List<PostingsList> included(Search search) {
+			ArrayList<PostingsList> lists = new ArrayList<>();
+			for (Node clause : clauses.values()) {
+				if (!(clause instanceof Not)) {
+					lists.add(search.evaluate(clause));
+				}
+			}
+			return lists;
+		}
+
+		/**
+		 * Returns the clauses that are negated.
+		 *
+		 * @return the negated clauses
+		 */
+		protected List<Node> excluded() {
+			ArrayList<Node> negated = new ArrayList<>();
+			for (Node clause : clauses.values()) {
+				if (clause instanceof Not not) {
+					negated.add(not.clause);
+				}
+			}
+			return negated;
+		}
+
+		/**
+		 * Evaluates the clauses that are negated.
+		 *
+		 * @param search the search being evaluated
+		 * @return the postings of the negated clauses
+		 */
+		protected List<PostingsList> excluded(Search search) {
+			ArrayList<PostingsList> lists = new ArrayList<>();
+			for (Node clause : excluded()) {
+				lists.add(search.evaluate(clause));
+			}
+			return lists;
+		}
+
+		@Override
+		public void collect(TreeMap<String, Node> leaves) {
+			for (Node clause : clauses.values()) {
+				clause.collect(leaves);
+			}
+		}
+
+		/**
+		 * Joins the text of the clauses.
+		 *
+		 * @param separator the text between clauses
+		 * @return the text of the clauses
+		 */
+		protected String join(String separator) {
+			ArrayList<String> text = new ArrayList<>(clauses.size());
+			for (var entry : clauses.entrySet()) {
+				Node clause = entry.getValue();
+				text.add(clause instanceof Group ? "(" + entry.getKey() + ")" : entry.getKey());
+			}
+			return String.join(separator, text);
+		}
+	}
+
+	/**
+	 * Clauses that match a document if any of them does, minus the documents
+	 * matched by any negated clause.
+	 */
+	private static class Or extends Group {
+
+		/**
+		 * Returns the only clause if there is just one and it is not negated, so
+		 * parentheses around a single clause do not change the query.
+		 *
+		 * @return the single clause, this group, or null if it is empty
+		 */
+		private Node simplify() {
+			if (clauses.isEmpty()) {
+				return null;
+			}
+			Node first = clauses.firstEntry().getValue();
+			return clauses.size() == 1 && !(first instanceof Not) ? first : this;
+		}
+
+		@Override
+		public PostingsList evaluate(Search search) {
+			List<PostingsList> included = included(search);
+			return exclude(union(included, 0, included.size()), excluded(search));
+		}
+
+		@Override
+		public String toString() {
+			return join(" ");
+		}
+	}
+
+	/**
+	 * Clauses that all must match a document, minus the documents matched by any
+	 * negated clause.
+	 */
+	private static class And extends Group {
+
+		@Override
+		public PostingsList evaluate(Search search) {
+			List<PostingsList> included = included(search);
+			List<PostingsList> excluded = excluded(search);
+			PostingsList result = new PostingsList();
+
+			if (included.isEmpty()) {
+				return result;
+			}
+
+			// leapfrog through the clauses starting from the one in the fewest documents
+			included.sort((a, b) -> Integer.compare(a.size(), b.size()));
+			PostingsList rarest = included.get(0);
+			int[] cursors = new int[included.size()];
+			int[] skips = new int[excluded.size()];
+			int i = 0;
+
+			while (i < rarest.size()) {
+				int document = rarest.getDocument(i);
+				int next = document;
+
+				for (int j = 1; j < cursors.length && next == document; j++) {
+					PostingsList other = included.get(j);
+					cursors[j] = other.advance(cursors[j], document);
+
+					if (cursors[j] == other.size()) {
+						return result;
+					}
+					next = other.getDocument(cursors[j]);
+				}
+
+				if (next != document) {
+					i = rarest.advance(i, next);
+					continue;
+				}
+
+				if (!contains(excluded, skips, document)) {
+					PositionList positions = rarest.getPositions(i);
+
+					if (cursors.length > 1) {
+						positions = new PositionList();
+						positions.addAll(rarest.getPositions(i));
+						for (int j = 1; j < cursors.length; j++) {
+							positions.addAll(included.get(j).getPositions(cursors[j]));
+						}
+					}
+					result.append(document, positions);
+				}
+				i++;
+			}
+			return result;
+		}
+
+		@Override
+		public String toString() {
+			return join(" AND ");
+		}
+	}
+
+	/**
+	 * A clause whose documents are removed from the clauses around it. Matches
+	 * nothing on its own.
+	 */
+	private static class Not implements Node {
+
+		/** The negated clause. */
+		private final Node clause;
+
+		/**
+		 * Initializes a negated clause.
+		 *
+		 * @param clause the clause to negate
+		 */
+		private Not(Node clause) {
+			this.clause = clause;
+		}
+
+		@Override
+		public PostingsList evaluate(Search search) {
+			return new PostingsList();
+		}
+
+		@Override
+		public void collect(TreeMap<String, Node> leaves) {
+			// negated clauses do not rank documents
+		}
+
+		@Override
+		public String toString() {
+			return "NOT " + (clause instanceof Group ? "(" + clause + ")" : clause);
+		}
+	}
+
+	/**
+	 * A single word.
+	 */
+	private static class Term implements Node {
+
+		/** The stemmed word. */
+		private final String word;
+
+		/**
+		 * Initializes a word clause.
+		 *
+		 * @param word the stemmed word
+		 */
+		private Term(String word) {
+			this.word = word;
+		}
+
+		@Override
+		public PostingsList evaluate(Search search) {
+			if (search.partial) {
+				List<PostingsList> lists = search.index.getPrefixPostings(word);
+				return union(lists, 0, lists.size());
+			}
+
+			PostingsList postings = search.index.getPostings(word);
+			return postings == null ? new PostingsList() : postings;
+		}
+
+		@Override
+		public String toString() {
+			return word;
+		}
+	}
+
+	/**
+	 * Words that must appear next to each other in order. Matches at the position
+	 * of the first word.
+	 */
+	private static class Phrase implements Node {
+
+		/** The stemmed words in order. */
+		private final List<String> words;
+
+		/**
+		 * Initializes a phrase clause.
+		 *
+		 * @param words the stemmed words in order
+		 */
+		private Phrase(List<String> words) {
+			this.words = words;
+		}
+
+		@Override
+		public PostingsList evaluate(Search search) {
+			PostingsList result = new PostingsList();
+			PostingsList[] lists = new PostingsList[words.size()];
+			Integer[] order = new Integer[lists.length];
+
+			for (int i = 0; i < lists.length; i++) {
+				lists[i] = search.index.getPostings(words.get(i));
+				if (lists[i] == null) {
+					return result;
+				}
+				order[i] = i;
+			}
+
+			// intersect starting from the word in the fewest documents
+			Arrays.sort(order, (a, b) -> Integer.compare(lists[a].size(), lists[b].size()));
+			int[] cursors = new int[lists.length];
+			PostingsList rarest = lists[order[0]];
+
+			for (int i = 0; i < rarest.size(); i++) {
+				int document = rarest.getDocument(i);
+				boolean found = true;
+
+				for (int j = 1; j < order.length && found; j++) {
+					PostingsList other = lists[order[j]];
+					cursors[j] = other.advance(cursors[j], document);
+					found = cursors[j] < other.size() && other.getDocument(cursors[j]) == document;
+				}
+
+				if (!found) {
+					continue;
+				}
+
+				int[] starts = starts(PositionList.toArray(rarest.getPositions(i)), order[0]);
+				for (int j = 1; j < order.length && starts.length > 0; j++) {
+					int[] positions = PositionList.toArray(lists[order[j]].getPositions(cursors[j]));
+					starts = intersect(starts, positions, order[j]);
+				}
+
+				if (starts.length > 0) {
+					PositionList positions = result.getOrCreate(document);
+					for (int start : starts) {
+						positions.append(start);
+					}
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * Converts the positions of a word into the positions the phrase would start at.
+		 *
+		 * @param positions the positions of the word
+		 * @param offset the position of the word in the phrase
+		 * @return the possible start positions of the phrase
+		 */
+		private static int[] starts(int[] positions, int offset) {
+			for (int i = 0; i < positions.length; i++) {
+				positions[i] -= offset;
+			}
+			return positions;
+		}
+
+		/**
+		 * Keeps the start positions where a word appears at its offset in the phrase.
+		 *
+		 * @param starts the possible start positions of the phrase
+		 * @param positions the positions of the word
+		 * @param offset the position of the word in the phrase
+		 * @return the start positions that are still possible
+		 */
+		private static int[] intersect(int[] starts, int[] positions, int offset) {
+			int kept = 0;
+			int cursor = 0;
+
+			for (int start : starts) {
+				cursor = gallop(positions, cursor, start + offset);
+				if (cursor == positions.length) {
+					break;
+				}
+				if (positions[cursor] == start + offset) {
+					starts[kept++] = start;
+				}
+			}
+			return Arrays.copyOf(starts, kept);
+		}
+
+		@Override
+		public String toString() {
+			return "\"" + String.join(" ", words) + "\"";
+		}
+	}
+
+	/**
+	 * Two operands that must appear within a number of words of each other, in
+	 * either order. Matches at the positions of the left operand.
+	 */
+	private static class Near implements Node {
+
+		/** The left operand. */
+		private final Node left;
+
+		/** The right operand. */
+		private final Node right;
+
+		/** The largest number of words between the operands. */
+		private final int distance;
+
+		/**
+		 * Initializes a proximity clause.
+		 *
+		 * @param left the left operand
+		 * @param right the right operand
+		 * @param distance the largest number of words between the operands
+		 */
+		private Near(Node left, Node right, int distance) {
+			this.left = left;
+			this.right = right;
+			this.distance = distance;
+		}
+
+		@Override
+		public PostingsList evaluate(Search search) {
+			PostingsList result = new PostingsList();
+			PostingsList first = search.exact().evaluate(left);
+			PostingsList second = search.exact().evaluate(right);
+			boolean same = left.toString().equals(right.toString());
+
+			int i = 0;
+			int j = 0;
+
+			while (i < first.size() && j < second.size()) {
+				int document = first.getDocument(i);
+
+				if (second.getDocument(j) != document) {
+					if (second.getDocument(j) < document) {
+						j = second.advance(j, document);
+					}
+					else {
+						i = first.advance(i, second.getDocument(j));
+					}
+					continue;
+				}
+
+				int[] positions = PositionList.toArray(second.getPositions(j));
+				int cursor = 0;
+				PositionList matched = null;
+
+				for (var iterator = first.getPositions(i).iterator(); iterator.hasNext();) {
+					int position = iterator.nextInt();
+					cursor = gallop(positions, cursor, position - distance);
+
+					int next = cursor;
+					if (same && next < positions.length && positions[next] == position) {
+						next++;
+					}
+
+					if (next < positions.length && positions[next] <= position + distance) {
+						if (matched == null) {
+							matched = result.getOrCreate(document);
+						}
+						matched.append(position);
+					}
+				}
+
+				i++;
+				j++;
+			}
+			return result;
+		}
+
+		@Override
+		public String toString() {
+			String first = left instanceof Group ? "(" + left + ")" : left.toString();
+			String second = right instanceof Group || right instanceof Near ? "(" + right + ")" : right.toString();
+			return first + " NEAR/" + distance + " " + second;
+		}
+	}
+}
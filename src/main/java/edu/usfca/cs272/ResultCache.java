@@ -0,0 +1,292 @@
+package edu.usfca.cs272;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.usfca.cs272.InvertedIndex.ResultsMetadata;
+
+/**
+ * A bounded cache of search results keyed by the normalized text of a query.
+ * Each entry is tagged with the generation of the index it was searched in, so
+ * results from before the index changed are never returned. Each entry also
+ * remembers how many of the best results were asked for, so it is only used for
+ * searches that want at most that many, or for any search once it holds every
+ * result. Once there are too
+ * many entries or too many results in total, the least recently used entries are
+ * evicted. The cache is safe to use from multiple threads.
+ *
+ * @author Katherine Le
+ *
+ * @see InvertedIndex#getGeneration()
+ */
+public class ResultCache {
+
+	/** The default maximum number of queries cached. */
+	public static final int DEFAULT_ENTRIES = 10_000;
+
+	/** The default maximum number of results cached across all queries. */
+	public static final long DEFAULT_WEIGHT = 1_000_000;
+
+	/** The maximum number of queries cached. */
+	private final int maxEntries;
+
+	/** The maximum number of results cached across all queries. */
+	private final long maxWeight;
+
+	/** The cached entries from least to most recently used. */
+	private final LinkedHashMap<String, Entry> entries;
+
+	/** The number of results cached across all queries. */
+	private long weight;
+
+	/** The number of lookups that found current results. */
+	private long hits;
+
+	/** The number of lookups that did not find current results. */
+	private long misses;
+
+	/**
+	 * Initializes a cache with the default bounds.
+	 */
+	public ResultCache() {
+		this(DEFAULT_ENTRIES, DEFAULT_WEIGHT);
+	}
+
+	/**
+	 * Initializes a cache.
+	 *
+	 * @param maxEntries the maximum number of queries cached
+	 * @param maxWeight the maximum number of results cached across all queries
+	 */
+	public ResultCache(int maxEntries, long maxWeight) {
+		this.maxEntries = maxEntries;
+		this.maxWeight = maxWeight;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true);
+		this.weight = 0;
+		this.hits = 0;
+		this.misses = 0;
+	}
+
+	/**
+	 * Returns every cached result for a query if they were searched in the current
+	 * generation of the index. Results from an older generation are removed.
+	 *
+	 * @param query the normalized text of the query
+	 * @param generation the current generation of the index
+	 * @return the cached results or null if there are none for this generation
+	 *
+	 * @see #get(String, long, int)
+	 */
+	public ArrayList<ResultsMetadata> get(String query, long generation) {
+		return get(query, generation, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the best k cached results for a query if they were searched in the
+	 * current generation of the index and the cached entry has at least the best k.
+	 * Results from an older generation are removed.
+	 *
+	 * @param query the normalized text of the query
+	 * @param generation the current generation of the index
+	 * @param k the maximum number of results wanted
+	 * @return the cached results or null if the best k are not cached for this generation
+	 */
+	public synchronized ArrayList<ResultsMetadata> get(String query, long generation, int k) {
+		Entry entry = entries.get(query);
+
+		if (entry != null && entry.generation != generation) {
+			remove(query);
+			entry = null;
+		}
+
+		if (entry == null || !entry.covers(k)) {
+			misses++;
+			return null;
+		}
+
+		hits++;
+		return entry.results.size() <= k ? entry.results : new ArrayList<>(entry.results.subList(0, k));
+	}
+
+	/**
+	 * Caches the results for a query, evicting the least recently used entries if
+	 * the cache is over its bounds. Results too large to ever fit are not cached.
+	 *
+	 * @param query the normalized text of the query
+	 * @param generation the generation of the index the results were searched in,
+	 *   which should be read before searching
+	 * @param results the results to cache, which must be every result of the query
+	 *
+	 * @see #put(String, long, int, ArrayList)
+	 */
+	public void put(String query, long generation, ArrayList<ResultsMetadata> results) {
+		put(query, generation, Integer.MAX_VALUE, results);
+	}
+
+	/**
+	 * Caches the best k results for a query, evicting the least recently used
+	 * entries if the cache is over its bounds. Results too large to ever fit are
+	 * not cached.
+	 *
+	 * @param query the normalized text of the query
+	 * @param generation the generation of the index the results were searched in,
+	 *   which should be read before searching
+	 * @param k the maximum number of results that were asked for
+	 * @param results the best k results of the query
+	 */
+	public synchronized void put(String query, long generation, int k, ArrayList<ResultsMetadata> results) {
+		Entry entry = new Entry(generation, k, results);
+		Entry existing = entries.get(query);
+
+		if (entry.weight > maxWeight || (existing != null && existing.generation == generation && existing.covers(k))) {
+			return;
+		}
+
+		remove(query);
+		entries.put(query, entry);
+		weight += entry.weight;
+
+		Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+		while (entries.size() > maxEntries || weight > maxWeight) {
+			weight -= iterator.next().getValue().weight;
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Returns every result for a query, searching the index and caching the results
+	 * if there are no results for the current generation of the index.
+	 *
+	 * @param query the parsed query
+	 * @param index the index to search
+	 * @param partial true to do a partial search
+	 * @return the results of the query
+	 *
+	 * @see #search(QueryTree, InvertedIndex, boolean, int)
+	 */
+	public ArrayList<ResultsMetadata> search(QueryTree query, InvertedIndex index, boolean partial) {
+		return search(query, index, partial, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the best k results for a query, searching the index and caching the
+	 * results if the best k are not cached for the current generation of the index.
+	 * The search itself is done without holding the cache lock.
+	 *
+	 * @param query the parsed query
+	 * @param index the index to search
+	 * @param partial true to do a partial search
+	 * @param k the maximum number of results to return
+	 * @return the best results of the query
+	 *
+	 * @see InvertedIndex#search(QueryTree, boolean, int)
+	 */
+	public ArrayList<ResultsMetadata> search(QueryTree query, InvertedIndex index, boolean partial, int k) {
+		String key = query.toString();
+		long generation = index.getGeneration();
+		ArrayList<ResultsMetadata> results = get(key, generation, k);
+
+		if (results == null) {
+			results = index.search(query, partial, k);
+			put(key, generation, k, results);
+		}
+		return results;
+	}
+
+	/**
+	 * Removes every entry.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		weight = 0;
+	}
+
+	/**
+	 * Returns the number of queries cached.
+	 *
+	 * @return the number of queries cached
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the number of lookups that found current results.
+	 *
+	 * @return the number of cache hits
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups that did not find current results.
+	 *
+	 * @return the number of cache misses
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ResultCache[size=" + entries.size() + ", weight=" + weight + ", hits=" + hits + ", misses=" + misses + "]";
+	}
+
+	/**
+	 * Removes an entry if it is cached.
+	 *
+	 * @param query the normalized text of the query
+	 */
+	private void remove(String query) {
+		Entry removed = entries.remove(query);
+		if (removed != null) {
+			weight -= removed.weight;
+		}
+	}
+
+	/**
+	 * The cached results of one query.
+	 */
+	private static class Entry {
+
+		/** The generation of the index the results were searched in. */
+		private final long generation;
+
+		/** The maximum number of results that were asked for. */
+		private final int k;
+
+		/** The best k results of the query. */
+		private final ArrayList<ResultsMetadata> results;
+
+		/** The weight of the entry, which counts the query itself as one result. */
+		private final long weight;
+
+		/**
+		 * Initializes an entry.
+		 *
+		 * @param generation the generation of the index the results were searched in
+		 * @param k the maximum number of results that were asked for
+		 * @param results the best k results of the query
+		 */
+		private Entry(long generation, int k, ArrayList<ResultsMetadata> results) {
+			this.generation = generation;
+			this.k = k;
+			this.results = results;
+			this.weight = results.size() + 1L;
+		}
+
+		/**
+		 * Checks whether this entry has the best k results, either because at least k
+		 * were asked for or because there were fewer results than were asked for.
+		 *
+		 * @param wanted the number of results wanted
+		 * @return true if this entry has the best results wanted
+		 */
+		private boolean covers(int wanted) {
+			return wanted <= k || results.size() < k;
+		}
+	}
+}
@@ -0,0 +1,243 @@
+package edu.usfca.cs272;
+
+/**
+ * Scores how well a document matches the words of a search. The score of a
+ * document adds up a score for each query word it contains, which is the word's
+ * weight times a value that only depends on how many times the word appears and
+ * a precomputed norm of the document. Scorers are created for a fixed set of
+ * documents, so every per-document norm is computed once when the scorer is
+ * created, and every per-word weight once per query word.
+ *
+ * @author Katherine Le
+ *
+ */
+public abstract class Scorer {
+
+	/**
+	 * The scoring models that can be selected.
+	 */
+	public enum Model {
+		/** The number of matches divided by the word count of the document. */
+		COUNT,
+
+		/** The term frequency times the inverse document frequency. */
+		TFIDF,
+
+		/** The Okapi BM25 ranking function. */
+		BM25;
+
+		/**
+		 * Returns the model with a name, ignoring case.
+		 *
+		 * @param name the name of the model
+		 * @param backup the model to return if the name does not match any model
+		 * @return the model with the name or the backup model
+		 */
+		public static Model parse(String name, Model backup) {
+			for (Model model : values()) {
+				if (model.name().equalsIgnoreCase(name)) {
+					return model;
+				}
+			}
+			return backup;
+		}
+
+		/**
+		 * Creates a scorer of this model for a set of documents.
+		 *
+		 * @param documents the documents to score
+		 * @return the scorer
+		 */
+		public Scorer create(DocumentTable documents) {
+			return switch (this) {
+				case COUNT -> new Count(documents);
+				case TFIDF -> new TfIdf(documents);
+				case BM25 -> new Bm25(documents);
+			};
+		}
+	}
+
+	/** The documents being scored. */
+	protected final DocumentTable documents;
+
+	/** The number of documents with a word count. */
+	protected final int total;
+
+	/**
+	 * Initializes a scorer for a set of documents.
+	 *
+	 * @param documents the documents to score
+	 */
+	protected Scorer(DocumentTable documents) {
+		this.documents = documents;
+		this.total = documents.numCounts();
+	}
+
+	/**
+	 * Returns the weight of a query word, which every score of that word is
+	 * multiplied by. Scorers that weight rare words higher use the document
+	 * frequency of the word, which a restricted list keeps from the list it was
+	 * restricted from.
+	 *
+	 * @param postings the postings of the word
+	 *
+	 * @see PostingsList#getFrequency()
+	 * @return the weight of the word
+	 */
+	public abstract double weight(PostingsList postings);
+
+	/**
+	 * Returns the score a query word adds to a document.
+	 *
+	 * @param frequency the number of times the word appears in the document
+	 * @param document the ID of the document
+	 * @param weight the weight of the word
+	 * @return the score of the word in the document
+	 */
+	public abstract double score(int frequency, int document, double weight);
+
+	/**
+	 * Returns the final score of a document.
+	 *
+	 * @param score the sum of the scores of each query word in the document
+	 * @param matches the total number of times the query words appear
+	 * @param document the ID of the document
+	 * @return the final score of the document
+	 */
+	public double finish(double score, int matches, int document) {
+		return score;
+	}
+
+	/**
+	 * Returns the inverse of the word count of each document, or 0 for documents
+	 * without a word count.
+	 *
+	 * @param documents the documents to compute the norms of
+	 * @return the inverse word counts indexed by document ID
+	 */
+	private static double[] inverseCounts(DocumentTable documents) {
+		double[] inverse = new double[documents.size()];
+
+		for (int id = 0; id < inverse.length; id++) {
+			int count = documents.getCount(id);
+			inverse[id] = count > 0 ? 1.0 / count : 0;
+		}
+		return inverse;
+	}
+
+	/**
+	 * Scores a document by the fraction of its words that match the query. The
+	 * final score divides the total matches by the word count, so it is exactly
+	 * the same as before scorers could be selected.
+	 */
+	private static class Count extends Scorer {
+
+		/** The inverse word count of each document. */
+		private final double[] inverse;
+
+		/**
+		 * Initializes the scorer.
+		 *
+		 * @param documents the documents to score
+		 */
+		private Count(DocumentTable documents) {
+			super(documents);
+			this.inverse = inverseCounts(documents);
+		}
+
+		@Override
+		public double weight(PostingsList postings) {
+			return 1;
+		}
+
+		@Override
+		public double score(int frequency, int document, double weight) {
+			return weight * frequency * inverse[document];
+		}
+
+		@Override
+		public double finish(double score, int matches, int document) {
+			return (double) matches / documents.getCount(document);
+		}
+	}
+
+	/**
+	 * Scores a document by the fraction of its words that match each query word,
+	 * weighted by how rare the query word is across all documents.
+	 */
+	private static class TfIdf extends Scorer {
+
+		/** The inverse word count of each document. */
+		private final double[] inverse;
+
+		/**
+		 * Initializes the scorer.
+		 *
+		 * @param documents the documents to score
+		 */
+		private TfIdf(DocumentTable documents) {
+			super(documents);
+			this.inverse = inverseCounts(documents);
+		}
+
+		@Override
+		public double weight(PostingsList postings) {
+			return Math.log(1 + (double) total / postings.getFrequency());
+		}
+
+		@Override
+		public double score(int frequency, int document, double weight) {
+			return weight * frequency * inverse[document];
+		}
+	}
+
+	/**
+	 * Scores a document with Okapi BM25, which saturates the score of a word the
+	 * more times it appears and favors documents shorter than average.
+	 */
+	private static class Bm25 extends Scorer {
+
+		/** Controls how quickly the score of a word saturates. */
+		private static final double K1 = 1.2;
+
+		/** Controls how much the length of a document matters. */
+		private static final double B = 0.75;
+
+		/**
+		 * The term added to the frequency in the denominator for each document,
+		 * which is K1 scaled by the length of the document relative to average.
+		 */
+		private final double[] norms;
+
+		/**
+		 * Initializes the scorer.
+		 *
+		 * @param documents the documents to score
+		 */
+		private Bm25(DocumentTable documents) {
+			super(documents);
+			this.norms = new double[documents.size()];
+
+			long words = 0;
+			for (int id = 0; id < norms.length; id++) {
+				words += documents.getCount(id);
+			}
+
+			double average = total > 0 ? (double) words / total : 1;
+			for (int id = 0; id < norms.length; id++) {
+				norms[id] = K1 * (1 - B + B * documents.getCount(id) / average);
+			}
+		}
+
+		@Override
+		public double weight(PostingsList postings) {
+			double found = postings.getFrequency();
+			return Math.log(1 + (total - found + 0.5) / (found + 0.5)) * (K1 + 1);
+		}
+
+		@Override
+		public double score(int frequency, int document, double weight) {
+			return weight * frequency / (frequency + norms[document]);
+		}
+	}
+}
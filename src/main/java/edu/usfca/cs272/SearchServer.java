@@ -6,7 +6,7 @@ import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 
 public class SearchServer {
-    public static void start(QueryParserInterface parser, int port, WorkQueue queue)
+    public static void start(QueryParserInterface parser, int port)
             throws Exception {
 
         Server server = new Server(port);
@@ -19,7 +19,7 @@ public class SearchServer {
         context.addServlet(DefaultServlet.class, "/");
 
         // Add SearchServlet at /search
-        context.addServlet(new ServletHolder(new SearchServlet(parser, queue)), "/search");
+        context.addServlet(new ServletHolder(new SearchServlet(parser)), "/search");
 
         server.setHandler(context);
         server.start();
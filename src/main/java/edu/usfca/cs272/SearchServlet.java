@@ -13,13 +13,14 @@ import java.util.ArrayList;
 import com.google.gson.Gson; // For converting Java objects to JSON
 
 public class SearchServlet extends HttpServlet {
+    /** The most results returned for a search, so only that many are ranked. */
+    public static final int MAX_RESULTS = 100;
+
     private final QueryParserInterface parser;
-    private final WorkQueue queue;
     private final Gson gson;
 
-    public SearchServlet(QueryParserInterface parser, WorkQueue queue) {
+    public SearchServlet(QueryParserInterface parser) {
         this.parser = parser;
-        this.queue = queue;
         this.gson = new Gson();
     }
 
@@ -33,12 +34,9 @@ public class SearchServlet extends HttpServlet {
         List<SearchResult> resultsList = new ArrayList<>();
 
         if (queryLine != null && !queryLine.isBlank()) {
-            parser.parseQuery(queryLine);
-            if (queue != null) {
-                queue.finish();
-            }
-
-            var results = parser.viewResults(queryLine);
+            // Searches on this request's thread so it never waits on other queued work,
+            // and only ranks the best results that are returned
+            var results = parser.search(queryLine, MAX_RESULTS);
             for (InvertedIndex.ResultsMetadata result : results) {
                 resultsList.add(new SearchResult(
                         result.getLocation(),
@@ -0,0 +1,317 @@
+package edu.usfca.cs272;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Builds an index snapshot for inputs too large to index in memory. Words are
+ * added to an in-memory index until it grows past a memory budget, at which
+ * point the index is written to disk as a sorted run and a new index is started.
+ * Once every file is added, the runs are combined with a k-way merge that reads
+ * each run one word at a time and writes the final snapshot one word at a time,
+ * so memory stays bounded no matter how large the input is. At most
+ * {@link #MERGE_WIDTH} runs are merged at once, so when there are more, groups
+ * of them are first merged into larger runs.
+ *
+ * <p>
+ * The size of the in-memory index is estimated from the number of words,
+ * postings, and positions it holds, each charged its own cost, and is checked
+ * after every word. A large file may therefore be split across runs. Its
+ * positions keep counting from where the previous run left off, and the parts
+ * are combined when the runs are merged.
+ *
+ * <p>
+ * Files are read one at a time on the calling thread.
+ *
+ * @see IndexSnapshot
+ *
+ * @author Katherine Le
+ *
+ */
+public class SpillingBuilder {
+
+	/** The default memory budget in megabytes. */
+	public static final int DEFAULT_BUDGET = 256;
+
+	/**
+	 * The estimated number of bytes each word takes in an in-memory index: the tree
+	 * map entry, the string, and an empty postings list with its arrays.
+	 */
+	public static final int BYTES_PER_WORD = 176;
+
+	/**
+	 * The estimated number of bytes each posting takes in an in-memory index: the
+	 * position list with its initial array, and its slots in the postings list.
+	 */
+	public static final int BYTES_PER_POSTING = 72;
+
+	/**
+	 * The estimated number of bytes each position takes in an in-memory index,
+	 * including the spare room left by growing the position list.
+	 */
+	public static final int BYTES_PER_POSITION = 4;
+
+	/** The most runs merged at once, which bounds the number of files open while merging. */
+	public static final int MERGE_WIDTH = 64;
+
+	/** Logger used for this class. */
+	private static final Logger log = LogManager.getLogger();
+
+	/**
+	 * Builds a snapshot of the text files in a path while keeping the in-memory
+	 * index under a memory budget. The runs are written to a temporary directory
+	 * next to the output, which is removed once the runs are merged.
+	 *
+	 * @param input the file or directory of text files to index
+	 * @param output the path to write the snapshot to
+	 * @param budget the number of bytes the in-memory index may use before it is written to disk
+	 * @throws IOException if an I/O error occurs
+	 *
+	 * @see MappedIndex#MappedIndex(Path)
+	 */
+	public static void buildSnapshot(Path input, Path output, long budget) throws IOException {
+		Path parent = output.toAbsolutePath().getParent();
+		Runs runs = new Runs(Files.createTempDirectory(parent, "runs"), budget);
+
+		try {
+			for (Path file : DirectoryTraverser.getTextFiles(input)) {
+				runs.addFile(file);
+			}
+			runs.finish();
+
+			while (runs.paths.size() > MERGE_WIDTH) {
+				runs.combine();
+			}
+			merge(runs.paths, output);
+		}
+		finally {
+			for (Path run : runs.paths) {
+				Files.deleteIfExists(run);
+			}
+			Files.deleteIfExists(runs.directory);
+		}
+	}
+
+	/**
+	 * Estimates the number of bytes an in-memory index takes.
+	 *
+	 * @param index the index to estimate
+	 * @param positions the number of positions added to the index
+	 * @return the estimated size of the index in bytes
+	 */
+	private static long estimate(InvertedIndex index, long positions) {
+		return (long) index.numWords() * BYTES_PER_WORD
+				+ index.numPostings() * BYTES_PER_POSTING
+				+ positions * BYTES_PER_POSITION;
+	}
+
+	/**
+	 * The runs of one build: the in-memory index being filled, and the runs already
+	 * written to disk, in the order they were written.
+	 */
+	private static class Runs {
+
+		/**The directory the runs are written to*/
+		private final Path directory;
+
+		/**The number of bytes the in-memory index may use before it is written to disk*/
+		private final long budget;
+
+		/**The runs not merged into the output yet, in the order they were written*/
+		private ArrayList<Path> paths;
+
+		/**The index being filled*/
+		private InvertedIndex index;
+
+		/**The number of positions in the index being filled*/
+		private long positions;
+
+		/**The number of runs written so far, used to name the next one*/
+		private int written;
+
+		/**
+		 * Constructor for initializing an empty set of runs.
+		 *
+		 * @param directory the directory to write the runs to
+		 * @param budget the number of bytes the in-memory index may use
+		 */
+		public Runs(Path directory, long budget) {
+			this.directory = directory;
+			this.budget = budget;
+			this.paths = new ArrayList<>();
+			this.index = new InvertedIndex();
+			this.positions = 0;
+			this.written = 0;
+		}
+
+		/**
+		 * Reads, parses, and stems a file line by line and adds its words to the
+		 * index, writing the index as a run whenever it grows past the budget.
+		 *
+		 * @param file the file to add
+		 * @throws IOException if an I/O error occurs
+		 */
+		public void addFile(Path file) throws IOException {
+			String location = file.toString();
+			FileProcessor.Tokenizer tokenizer = new FileProcessor.Tokenizer();
+			int position = 1;
+
+			try (BufferedReader reader = Files.newBufferedReader(file, UTF_8)) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					tokenizer.reset(line);
+					while (tokenizer.next()) {
+						index.add(StemCache.ENGLISH.stem(tokenizer.word()), location, position++);
+						positions++;
+
+						if (estimate(index, positions) > budget) {
+							spill();
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Writes what is left in the index as a final run. An empty index is only
+		 * written if there are no runs at all, so the output still gets a snapshot.
+		 *
+		 * @throws IOException if an I/O error occurs
+		 */
+		public void finish() throws IOException {
+			if (positions > 0 || paths.isEmpty()) {
+				spill();
+			}
+		}
+
+		/**
+		 * Writes the index to disk as a sorted run and starts a new index.
+		 *
+		 * @throws IOException if an I/O error occurs
+		 */
+		private void spill() throws IOException {
+			Path run = next();
+			index.saveSnapshot(run);
+			paths.add(run);
+			log.debug("Wrote run {} with {} words", run, index.numWords());
+
+			index = new InvertedIndex();
+			positions = 0;
+		}
+
+		/**
+		 * Merges each group of up to {@link SpillingBuilder#MERGE_WIDTH} consecutive
+		 * runs into a single run, keeping the runs in order.
+		 *
+		 * @throws IOException if an I/O error occurs
+		 */
+		public void combine() throws IOException {
+			ArrayList<Path> combined = new ArrayList<>();
+
+			for (int i = 0; i < paths.size(); i += MERGE_WIDTH) {
+				List<Path> group = paths.subList(i, Math.min(i + MERGE_WIDTH, paths.size()));
+
+				if (group.size() == 1) {
+					combined.add(group.get(0));
+					continue;
+				}
+
+				Path run = next();
+				merge(group, run);
+				combined.add(run);
+
+				for (Path merged : group) {
+					Files.delete(merged);
+				}
+			}
+
+			log.debug("Combined {} runs into {}", paths.size(), combined.size());
+			paths = combined;
+		}
+
+		/**
+		 * Returns the path for the next run.
+		 *
+		 * @return the path of the next run
+		 */
+		private Path next() {
+			return directory.resolve("run" + written++ + ".bin");
+		}
+	}
+
+	/**
+	 * Merges sorted runs into a single snapshot. The documents of each run are
+	 * given new IDs in run order, so the postings of a word from later runs
+	 * always come after those from earlier runs and can simply be appended.
+	 *
+	 * @param runs the runs to merge, in the order they were written
+	 * @param output the path to write the snapshot to
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void merge(List<Path> runs, Path output) throws IOException {
+		ArrayList<IndexSnapshot.Reader> readers = new ArrayList<>();
+
+		try {
+			DocumentTable documents = new DocumentTable();
+			int[][] mappings = new int[runs.size()][];
+
+			for (int i = 0; i < runs.size(); i++) {
+				IndexSnapshot.Reader reader = new IndexSnapshot.Reader(runs.get(i));
+				readers.add(reader);
+
+				DocumentTable local = reader.getDocuments();
+				mappings[i] = new int[local.size()];
+				for (int id = 0; id < local.size(); id++) {
+					mappings[i][id] = documents.register(local.getLocation(id));
+					documents.updateCount(mappings[i][id], local.getCount(id));
+				}
+			}
+
+			// the runs are ordered by their current word, and then by run so postings are appended in order
+			PriorityQueue<Integer> heads = new PriorityQueue<>(
+					Comparator.comparing((Integer run) -> readers.get(run).word()).thenComparing(run -> run));
+
+			for (int i = 0; i < readers.size(); i++) {
+				if (readers.get(i).next()) {
+					heads.add(i);
+				}
+			}
+
+			try (IndexSnapshot.Writer writer = new IndexSnapshot.Writer(documents, output)) {
+				while (!heads.isEmpty()) {
+					String word = readers.get(heads.peek()).word();
+					PostingsList merged = new PostingsList();
+
+					while (!heads.isEmpty() && readers.get(heads.peek()).word().equals(word)) {
+						int run = heads.poll();
+						merged.addAll(readers.get(run).postings(), mappings[run]);
+
+						if (readers.get(run).next()) {
+							heads.add(run);
+						}
+					}
+
+					merged.trimToSize();
+					writer.add(word, merged);
+				}
+				writer.finish();
+			}
+		}
+		finally {
+			for (IndexSnapshot.Reader reader : readers) {
+				reader.close();
+			}
+		}
+	}
+}
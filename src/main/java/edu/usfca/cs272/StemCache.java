@@ -0,0 +1,192 @@
+package edu.usfca.cs272;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import opennlp.tools.stemmer.Stemmer;
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
+import opennlp.tools.stemmer.snowball.SnowballStemmer.ALGORITHM;
+
+/**
+ * A stemmer that remembers the stems of words it has seen before. Words that
+ * are not cached yet are stemmed by a {@link SnowballStemmer} borrowed from a
+ * pool, since a single stemmer is not safe to share. A stemmer is only held for
+ * one word, so the pool stays about as large as the number of threads stemming
+ * at once, even when every task runs on its own virtual thread.
+ *
+ * <p>
+ * The cache is split into two generations of up to half its size each. New
+ * words go into the recent generation, and a word found in the older one is
+ * copied into the recent one. Once the recent generation is full it becomes the
+ * older one and the previous older generation is dropped, which evicts every
+ * word not used since. This approximates least recently used eviction without
+ * any bookkeeping on a hit. The cache is safe to use from multiple threads.
+ *
+ * @author Katherine Le
+ */
+public class StemCache implements Stemmer {
+
+	/** The default maximum number of words cached. */
+	public static final int DEFAULT_SIZE = 1_000_000;
+
+	/** The cache shared by everything that stems English text. */
+	public static final StemCache ENGLISH = new StemCache(ALGORITHM.ENGLISH, DEFAULT_SIZE);
+
+	/** The stems of the words used since the last rotation, keyed by the word they were stemmed from. */
+	private volatile ConcurrentHashMap<String, String> recent;
+
+	/** The stems of the words used in the generation before the recent one. */
+	private volatile ConcurrentHashMap<String, String> older;
+
+	/** The stemming algorithm to use for words that are not cached. */
+	private final ALGORITHM algorithm;
+
+	/** The stemmers not in use by any thread. */
+	private final ConcurrentLinkedQueue<SnowballStemmer> stemmers;
+
+	/** The maximum number of words cached in each generation. */
+	private final int generationSize;
+
+	/** The number of lookups that found a cached stem. */
+	private final LongAdder hits;
+
+	/** The number of lookups that had to stem the word. */
+	private final LongAdder misses;
+
+	/**
+	 * Initializes an empty cache.
+	 *
+	 * @param algorithm the stemming algorithm to use
+	 * @param maxSize the maximum number of words cached
+	 */
+	public StemCache(ALGORITHM algorithm, int maxSize) {
+		this.recent = new ConcurrentHashMap<>();
+		this.older = new ConcurrentHashMap<>();
+		this.algorithm = algorithm;
+		this.stemmers = new ConcurrentLinkedQueue<>();
+		this.generationSize = Math.max(1, maxSize / 2);
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+	}
+
+	/**
+	 * Returns the stem of a word, stemming and caching it if it is not cached yet.
+	 *
+	 * @param word the word to stem
+	 * @return the stem of the word
+	 */
+	@Override
+	public String stem(CharSequence word) {
+		String key = word.toString();
+		String stem = recent.get(key);
+
+		if (stem != null) {
+			hits.increment();
+			return stem;
+		}
+
+		stem = older.get(key);
+		if (stem != null) {
+			hits.increment();
+			store(key, stem);
+			return stem;
+		}
+
+		misses.increment();
+		SnowballStemmer stemmer = stemmers.poll();
+		if (stemmer == null) {
+			stemmer = new SnowballStemmer(algorithm);
+		}
+
+		stem = stemmer.stem(key).toString();
+		stemmers.add(stemmer);
+
+		store(key, stem);
+		return stem;
+	}
+
+	/**
+	 * Adds a stem to the recent generation, first rotating the generations if the
+	 * recent one is full.
+	 *
+	 * @param word the word that was stemmed
+	 * @param stem the stem of the word
+	 */
+	private void store(String word, String stem) {
+		ConcurrentHashMap<String, String> current = recent;
+
+		if (current.size() >= generationSize) {
+			rotate(current);
+			current = recent;
+		}
+		current.put(word, stem);
+	}
+
+	/**
+	 * Makes a full recent generation the older one, dropping the previous older
+	 * generation. Does nothing if another thread already rotated it.
+	 *
+	 * @param full the recent generation that was found full
+	 */
+	private synchronized void rotate(ConcurrentHashMap<String, String> full) {
+		if (recent == full) {
+			older = full;
+			recent = new ConcurrentHashMap<>();
+		}
+	}
+
+	/**
+	 * Removes every cached word and resets the statistics.
+	 */
+	public synchronized void clear() {
+		recent = new ConcurrentHashMap<>();
+		older = new ConcurrentHashMap<>();
+		hits.reset();
+		misses.reset();
+	}
+
+	/**
+	 * Returns the number of words cached. A word used in both generations is
+	 * counted twice.
+	 *
+	 * @return the number of words cached
+	 */
+	public int size() {
+		return recent.size() + older.size();
+	}
+
+	/**
+	 * Returns the number of lookups that found a cached stem.
+	 *
+	 * @return the number of cache hits
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of lookups that had to stem the word.
+	 *
+	 * @return the number of cache misses
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the fraction of lookups that found a cached stem.
+	 *
+	 * @return the hit rate from 0 to 1, or 0 if there have been no lookups
+	 */
+	public double getHitRate() {
+		long hit = hits.sum();
+		long total = hit + misses.sum();
+		return total == 0 ? 0 : (double) hit / total;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("StemCache[size=%d, hits=%d, misses=%d, hitRate=%.3f]", size(), getHits(), getMisses(), getHitRate());
+	}
+}
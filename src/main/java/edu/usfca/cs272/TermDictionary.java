@@ -0,0 +1,343 @@
+package edu.usfca.cs272;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+
+/**
+ * A frozen, sorted dictionary of the words in an inverted index. Each word is
+ * identified by its position in sorted order, so the words sharing a prefix
+ * always form a contiguous range of IDs.
+ *
+ * <p>
+ * The words are front-coded in blocks: the first word of every block is stored
+ * in full, and every other word is stored as the number of leading characters it
+ * shares with the previous word followed by the rest of its characters. A lookup
+ * binary searches the first words of the blocks and then decodes a single block.
+ *
+ * @author Katherine Le
+ *
+ */
+public class TermDictionary {
+
+	/** The number of words in each front-coded block. */
+	private static final int BLOCK_SIZE = 16;
+
+	/** The front-coded words. */
+	private final char[] chars;
+
+	/** The offset in the characters of the first word in each block. */
+	private final int[] blocks;
+
+	/** The postings of each word, indexed by word ID. */
+	private final PostingsList[] postings;
+
+	/**
+	 * Initializes a dictionary from the words and postings of an index.
+	 *
+	 * @param index the postings of each word in sorted order
+	 */
+	public TermDictionary(SortedMap<String, PostingsList> index) {
+		StringBuilder builder = new StringBuilder();
+		this.postings = new PostingsList[index.size()];
+		this.blocks = new int[(index.size() + BLOCK_SIZE - 1) / BLOCK_SIZE];
+
+		String previous = "";
+		int id = 0;
+
+		for (var entry : index.entrySet()) {
+			String word = entry.getKey();
+			int shared = 0;
+
+			if (id % BLOCK_SIZE == 0) {
+				blocks[id / BLOCK_SIZE] = builder.length();
+			}
+			else {
+				int limit = Math.min(previous.length(), word.length());
+				while (shared < limit && previous.charAt(shared) == word.charAt(shared)) {
+					shared++;
+				}
+			}
+
+			writeLength(builder, shared);
+			writeLength(builder, word.length() - shared);
+			builder.append(word, shared, word.length());
+
+			postings[id++] = entry.getValue();
+			previous = word;
+		}
+
+		this.chars = new char[builder.length()];
+		builder.getChars(0, builder.length(), chars, 0);
+	}
+
+	/**
+	 * Returns the number of words in the dictionary.
+	 *
+	 * @return the number of words
+	 */
+	public int size() {
+		return postings.length;
+	}
+
+	/**
+	 * Finds the ID of a word.
+	 *
+	 * @param word the word to find
+	 * @return the ID of the word, or (-(insertion point) - 1) if not found
+	 */
+	public int find(CharSequence word) {
+		int low = 0;
+		int high = blocks.length - 1;
+
+		// find the last block whose first word is not greater than the word
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int offset = blocks[middle];
+			int length = chars[offset + 1];
+			int start = offset + 2;
+
+			if ((length & 0x8000) != 0) {
+				length = ((length & 0x7FFF) << 16) | chars[offset + 2];
+				start++;
+			}
+
+			int compared = compare(word, chars, start, length);
+
+			if (compared < 0) {
+				high = middle - 1;
+			}
+			else if (compared > 0) {
+				low = middle + 1;
+			}
+			else {
+				return middle * BLOCK_SIZE;
+			}
+		}
+
+		if (high < 0) {
+			return -1;
+		}
+
+		Cursor cursor = new Cursor(high * BLOCK_SIZE);
+		int end = Math.min(size(), (high + 1) * BLOCK_SIZE);
+
+		while (cursor.id < end) {
+			int compared = compare(word, cursor.word, 0, cursor.length);
+
+			if (compared == 0) {
+				return cursor.id;
+			}
+			if (compared < 0) {
+				return -cursor.id - 1;
+			}
+			cursor.next();
+		}
+		return -end - 1;
+	}
+
+	/**
+	 * Finds the range of IDs of the words that start with a prefix. The start of
+	 * the range is found with a single lookup, and the end by decoding forward.
+	 *
+	 * @param prefix the prefix to look for
+	 * @return the first ID in the range and the ID just past the range
+	 */
+	public int[] findPrefix(String prefix) {
+		int start = find(prefix);
+		start = start < 0 ? -start - 1 : start;
+
+		Cursor cursor = new Cursor(start);
+		while (cursor.id < size() && cursor.startsWith(prefix)) {
+			cursor.next();
+		}
+		return new int[] { start, cursor.id };
+	}
+
+	/**
+	 * Returns the word with an ID.
+	 *
+	 * @param id the ID of the word
+	 * @return the word
+	 */
+	public String getWord(int id) {
+		Cursor cursor = new Cursor(id);
+		return new String(cursor.word, 0, cursor.length);
+	}
+
+	/**
+	 * Returns the postings of the word with an ID.
+	 *
+	 * @param id the ID of the word
+	 * @return the postings of the word
+	 */
+	public PostingsList getPostings(int id) {
+		return postings[id];
+	}
+
+	/**
+	 * Returns the postings for a range of IDs without copying them.
+	 *
+	 * @param start the first ID in the range
+	 * @param end the ID just past the range
+	 * @return an unmodifiable view of the postings in the range
+	 */
+	public List<PostingsList> getPostings(int start, int end) {
+		return Collections.unmodifiableList(Arrays.asList(postings).subList(start, end));
+	}
+
+	/**
+	 * Returns the words in the dictionary in sorted order, decoding each word when
+	 * it is accessed.
+	 *
+	 * @return an unmodifiable view of the words
+	 */
+	public List<String> viewWords() {
+		return new AbstractList<>() {
+			@Override
+			public String get(int index) {
+				return getWord(index);
+			}
+
+			@Override
+			public int size() {
+				return postings.length;
+			}
+		};
+	}
+
+	/**
+	 * Appends a length as a single character if it fits in 15 bits, or as two
+	 * characters with the high bit of the first one set otherwise.
+	 *
+	 * @param builder the builder to append to
+	 * @param length the length to append
+	 */
+	private static void writeLength(StringBuilder builder, int length) {
+		if (length < 0x8000) {
+			builder.append((char) length);
+		}
+		else {
+			builder.append((char) (0x8000 | (length >>> 16)));
+			builder.append((char) length);
+		}
+	}
+
+	/**
+	 * Compares a word with a range of characters in the same order as
+	 * {@link String#compareTo(String)}.
+	 *
+	 * @param word the word to compare
+	 * @param other the characters to compare against
+	 * @param start the start of the range of characters
+	 * @param length the number of characters in the range
+	 * @return a negative number, zero, or a positive number if the word comes
+	 *   before, is equal to, or comes after the characters
+	 */
+	private static int compare(CharSequence word, char[] other, int start, int length) {
+		int limit = Math.min(word.length(), length);
+
+		for (int i = 0; i < limit; i++) {
+			char a = word.charAt(i);
+			char b = other[start + i];
+			if (a != b) {
+				return a - b;
+			}
+		}
+		return word.length() - length;
+	}
+
+	/**
+	 * Decodes the words of the dictionary one at a time starting from an ID.
+	 */
+	private class Cursor {
+
+		/** The ID of the current word. */
+		private int id;
+
+		/** The offset of the next front-coded word. */
+		private int offset;
+
+		/** The characters of the current word. */
+		private char[] word;
+
+		/** The length of the current word. */
+		private int length;
+
+		/**
+		 * Initializes a cursor positioned at a word ID. If the ID is past the last
+		 * word, the cursor is positioned at the end of the dictionary.
+		 *
+		 * @param target the ID to start at
+		 */
+		private Cursor(int target) {
+			this.word = new char[16];
+			this.length = 0;
+			this.id = Math.min(target, size());
+
+			if (id < size()) {
+				this.offset = blocks[id / BLOCK_SIZE];
+				this.id = id / BLOCK_SIZE * BLOCK_SIZE - 1;
+
+				do {
+					next();
+				} while (id < target);
+			}
+		}
+
+		/**
+		 * Moves to the next word. The cursor must not be past the last word.
+		 */
+		private void next() {
+			id++;
+			if (id >= size()) {
+				return;
+			}
+
+			int shared = readLength();
+			int suffix = readLength();
+
+			if (shared + suffix > word.length) {
+				word = Arrays.copyOf(word, Math.max(shared + suffix, word.length * 2));
+			}
+
+			System.arraycopy(chars, offset, word, shared, suffix);
+			offset += suffix;
+			length = shared + suffix;
+		}
+
+		/**
+		 * Reads a length written by {@link TermDictionary#writeLength(StringBuilder, int)}.
+		 *
+		 * @return the length
+		 */
+		private int readLength() {
+			int length = chars[offset++];
+			if ((length & 0x8000) != 0) {
+				length = ((length & 0x7FFF) << 16) | chars[offset++];
+			}
+			return length;
+		}
+
+		/**
+		 * Checks if the current word starts with a prefix.
+		 *
+		 * @param prefix the prefix to check
+		 * @return true if the current word starts with the prefix
+		 */
+		private boolean startsWith(String prefix) {
+			if (prefix.length() > length) {
+				return false;
+			}
+
+			for (int i = 0; i < prefix.length(); i++) {
+				if (word[i] != prefix.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -14,7 +14,7 @@ import java.util.Set;
  * @author Katherine Le
  *
  */
-public class ThreadSafeIndex extends InvertedIndex {
+public class ThreadSafeIndex extends InvertedIndex implements ConcurrentIndex {
 
 	/** The lock used to protect concurrent access to the underlying inverted index. */
 	private final MultiReaderLock lock;
@@ -96,6 +96,54 @@ public class ThreadSafeIndex extends InvertedIndex {
 		}
 	}
 
+	@Override
+	public void setScorer(Scorer.Model model) {
+		lock.writeLock().lock();
+
+		try {
+			 super.setScorer(model);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public long getGeneration() {
+		lock.readLock().lock();
+
+		try {
+			return super.getGeneration();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void freeze() {
+		lock.writeLock().lock();
+
+		try {
+			 super.freeze();
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void saveSnapshot(Path path) throws IOException {
+		lock.readLock().lock();
+
+		try {
+			 super.saveSnapshot(path);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
 	@Override
 	public boolean hasLocation(String location) {
 		lock.readLock().lock();
@@ -266,11 +314,23 @@ public class ThreadSafeIndex extends InvertedIndex {
 	}
 
 	@Override
-	public ArrayList<ResultsMetadata> exactSearch(Set<String> query) {
+	public ArrayList<ResultsMetadata> exactSearch(Set<String> query, int k) {
+		lock.readLock().lock();
+
+		try {
+			return super.exactSearch(query, k);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public ArrayList<ResultsMetadata> partialSearch(Set<String> query, int k) {
 		lock.readLock().lock();
 
 		try {
-			return super.exactSearch(query);
+			return super.partialSearch(query, k);
 		}
 		finally {
 			lock.readLock().unlock();
@@ -278,11 +338,11 @@ public class ThreadSafeIndex extends InvertedIndex {
 	}
 
 	@Override
-	public ArrayList<ResultsMetadata> partialSearch(Set<String> query) {
+	public ArrayList<ResultsMetadata> search(QueryTree query, boolean partial, int k) {
 		lock.readLock().lock();
 
 		try {
-			return super.partialSearch(query);
+			return super.search(query, partial, k);
 		}
 		finally {
 			lock.readLock().unlock();
@@ -300,4 +360,16 @@ public class ThreadSafeIndex extends InvertedIndex {
 			lock.writeLock().unlock();
 		}
 	}
+
+	@Override
+	public void addAll(InvertedIndex local, int offset) {
+		lock.writeLock().lock();
+
+		try {
+			 super.addAll(local, offset);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
 }
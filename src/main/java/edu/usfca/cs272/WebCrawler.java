@@ -6,8 +6,8 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashSet;
-
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 
 /**
  * Class for crawling a web page to build an inverted index.
@@ -17,37 +17,86 @@ import opennlp.tools.stemmer.snowball.SnowballStemmer;
  */
 public class WebCrawler {
 
+	/** The default maximum number of pages downloaded at once. */
+	public static final int DEFAULT_FETCHES = 64;
+
 	private final HashSet<URL> fetched;
 
 	private final int maxCrawls;
 
 	private final WorkQueue queue;
 
+	/** The permits for pages being downloaded, separate from how many tasks the queue runs at once. */
+	private final Semaphore fetches;
+
 	/**
 	 * Constructor to initialize a new web crawler
 	 *
 	 * @param index the index to build
 	 */
 	public WebCrawler(int maxCrawls, WorkQueue queue) {
+		this(maxCrawls, queue, DEFAULT_FETCHES);
+	}
+
+	/**
+	 * Constructor to initialize a new web crawler that downloads at most a number of pages at once
+	 *
+	 * @param maxCrawls the maximum number of pages to crawl
+	 * @param queue the work queue to use
+	 * @param maxFetches the maximum number of pages downloaded at once
+	 */
+	public WebCrawler(int maxCrawls, WorkQueue queue, int maxFetches) {
 		this.fetched = new HashSet<>();
 		this.maxCrawls = maxCrawls;
 		this.queue = queue;
+		this.fetches = new Semaphore(Math.max(1, maxFetches));
+	}
+
+	/**
+	 * Downloads a page once a fetch permit is free.
+	 *
+	 * @param url the URL to download
+	 * @return the HTML of the page, or null if it could not be downloaded
+	 */
+	private String fetch(URL url) {
+		try {
+			fetches.acquire();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+
+		try {
+			return HtmlFetcher.fetchRobust(url.toString());
+		}
+		finally {
+			fetches.release();
+		}
 	}
 
 	/**
 	 * Downloads HTML from seed URL if content is HTML and has status code 200. Follows up to 3 redirects.
 	 * Processes the HTML by removing any comments,block elements, tags, and HTML 4 entities.
 	 * The resulting text is cleaned, stemmed, parsed and added into the inverted index.
+	 * The pages of this crawl run as their own group on the work queue, so this waits
+	 * only on them and not on other work sharing the queue.
 	 *
+	 * @param index the index to add the pages to
 	 * @param seed the URL to start the crawl from
 	 * @throws URISyntaxException if unable to craft new URI
 	 * @throws MalformedURLException if unable to craft new URL
 	 */
 	public void processHTML(ThreadSafeIndex index, String seed) throws MalformedURLException, URISyntaxException {
 		URL url = URI.create(seed).toURL();
-		queue.execute(new Task(url, index, fetched));
-		fetched.add(url);
-		queue.finish();
+
+		try (WorkQueue.TaskGroup group = queue.group("Crawl " + seed)) {
+			synchronized (fetched) {
+				fetched.add(url);
+			}
+			group.execute(new Task(url, index, fetched, group));
+			group.await();
+		}
 	}
 
 	private class Task implements Runnable {
@@ -58,21 +107,24 @@ public class WebCrawler {
 
 		private HashSet<URL> fetched;
 
+		/**The group of tasks for the crawl this page belongs to*/
+		private final WorkQueue.TaskGroup group;
+
 		private final ArrayList<URL> urls = new ArrayList<>();
 
-		public Task(URL url, ThreadSafeIndex index, HashSet<URL> fetched) {
+		public Task(URL url, ThreadSafeIndex index, HashSet<URL> fetched, WorkQueue.TaskGroup group) {
 			this.url = url;
 			this.index = index;
 			this.fetched = fetched;
+			this.group = group;
 		}
 
 		@Override
 		public void run() {
 			System.out.println("Crawling: " + url.toString());
 			InvertedIndex local = new InvertedIndex();
-			SnowballStemmer stemmer = new SnowballStemmer(SnowballStemmer.ALGORITHM.ENGLISH);
 
-			String html = HtmlFetcher.fetchRobust(url.toString());
+			String html = fetch(url);
 
 			
 			if (html == null) {
@@ -85,21 +137,28 @@ public class WebCrawler {
 				LinkFinder.findUrlsMainContent(url, html, urls);
 				html = HtmlCleaner.stripTags(html);
 				html = HtmlCleaner.stripEntities(html);
-				ArrayList<String> stems = FileProcessor.listStems(html, stemmer);
+				ArrayList<String> stems = FileProcessor.listStems(html, StemCache.ENGLISH);
 				local.addAll(stems, url.toString());
 				index.addAll(local);
 
 				for (URL foundURL : urls) {
+					// claim the link before adding its task, so no other page can claim it too
 					synchronized (fetched) {
 						if (fetched.contains(foundURL) || fetched.size() >= maxCrawls) {
 							continue;
 						}
-					}
-					//fetched.add(foundURL);
-					queue.execute(new Task(foundURL, index, fetched));
-					synchronized (fetched) {
 						fetched.add(foundURL);
 					}
+
+					try {
+						group.execute(new Task(foundURL, index, fetched, group));
+					}
+					catch (RejectedExecutionException e) {
+						// the queue is full, so leave the link for another page to find later
+						synchronized (fetched) {
+							fetched.remove(foundURL);
+						}
+					}
 				}
 			}
 		}
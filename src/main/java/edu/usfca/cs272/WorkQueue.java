@@ -1,6 +1,15 @@
 package edu.usfca.cs272;
 
-import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -11,14 +20,49 @@ import org.apache.logging.log4j.Logger;
  * Brian Goetz. It is up to the user of this class to keep track of whether
  * there is any pending work remaining.
  *
+ * <p>
+ * Each worker has its own deque of tasks. Tasks added by a worker go onto its
+ * own deque, and tasks added by any other thread go onto a shared queue of
+ * submissions. A worker runs the newest task from its own deque first, then
+ * the oldest submission, and otherwise steals the oldest task from another
+ * worker. Workers with nothing to do park until new work is added. None of
+ * this takes a lock; only {@link #finish()} waits on a monitor.
+ *
+ * <p>
+ * A queue made by {@link #ofVirtual()} has no workers and instead starts a new
+ * virtual thread for every task, so tasks that spend most of their time blocked
+ * (such as fetching web pages) can have thousands in flight without thousands of
+ * platform threads. Any limit on how many run at once is up to the tasks.
+ *
+ * <p>
+ * Exceptions thrown by tasks added with {@link #execute(Runnable)} are only
+ * logged. Use {@link #submit(Callable)} to get the result or exception of a
+ * single task, or a {@link TaskGroup} to wait on a set of tasks and have the
+ * first failure cancel the rest of the set. Since each group counts its own
+ * pending tasks, unrelated work sharing the same queue (such as a crawl, a file
+ * of queries, and server requests) can each wait only on their own tasks, while
+ * {@link #finish()} still waits on every task in the queue.
+ *
+ * <p>
+ * A queue may be given a capacity, which bounds the number of tasks that are
+ * waiting or running at once so that a fast producer cannot fill the heap. What
+ * happens when a task is added to a full queue is set by its {@link Policy}, and
+ * every time it happens is counted by {@link #getFullCount()}.
+ *
  * @author CS 272 Software Development (University of San Francisco)
  * @version Spring 2023*/
 public class WorkQueue {
 	/** Workers that wait until work (or tasks) are available. */
 	private final Worker[] workers;
 
-	/** Queue of pending work (or tasks). */
-	private final LinkedList<Runnable> tasks;
+	/** Queue of pending work (or tasks) added by threads other than the workers. */
+	private final ConcurrentLinkedQueue<Runnable> submissions;
+
+	/** Workers that are parked waiting for work. */
+	private final ConcurrentLinkedQueue<Worker> idle;
+
+	/** Whether each task runs on its own virtual thread instead of on a worker. */
+	private final boolean virtual;
 
 	/** Used to signal the workers should terminate. */
 	private volatile boolean shutdown;
@@ -30,7 +74,56 @@ public class WorkQueue {
 	private static final Logger log = LogManager.getLogger();
 
 	/**The number to track the number of pending work*/
-	private int pending;
+	private final AtomicInteger pending;
+
+	/**The number of task groups created, used to name groups that are not given a name*/
+	private final AtomicInteger groups;
+
+	/**The most tasks that may be waiting or running at once, or 0 if there is no limit*/
+	private final int capacity;
+
+	/**What to do with a task added while the queue is full*/
+	private final Policy policy;
+
+	/**The number of tasks added while the queue was full*/
+	private final LongAdder full;
+
+	/**The work queue whose task the current thread is running, if any*/
+	private static final ThreadLocal<WorkQueue> CURRENT = new ThreadLocal<>();
+
+	/**
+	 * What to do with a task added while a bounded queue is full.
+	 */
+	public enum Policy {
+		/**
+		 * Wait until there is room. A thread already running a task of the queue
+		 * runs the new task itself instead, since waiting on its own queue could
+		 * wait forever.
+		 */
+		BLOCK,
+
+		/** Run the task on the thread that added it, which slows that thread down. */
+		CALLER_RUNS,
+
+		/** Throw a {@link RejectedExecutionException} without running the task. */
+		REJECT;
+
+		/**
+		 * Returns the policy with a name, ignoring case and treating dashes as underscores.
+		 *
+		 * @param name the name of the policy
+		 * @param backup the policy to return if the name does not match any policy
+		 * @return the policy with the name or the backup policy
+		 */
+		public static Policy parse(String name, Policy backup) {
+			for (Policy policy : values()) {
+				if (name != null && policy.name().equalsIgnoreCase(name.replace('-', '_'))) {
+					return policy;
+				}
+			}
+			return backup;
+		}
+	}
 
 	/**
 	 * Starts a work queue with the default number of threads.
@@ -47,47 +140,255 @@ public class WorkQueue {
 	 * @param threads number of worker threads; should be greater than 1
 	 */
 	public WorkQueue(int threads) {
-		this.tasks = new LinkedList<>();
+		this(threads, 0, Policy.BLOCK);
+	}
+
+	/**
+	 * Starts a work queue with the specified number of threads and capacity.
+	 *
+	 * @param threads number of worker threads; should be greater than 1
+	 * @param capacity the most tasks that may be waiting or running at once, or 0 for no limit
+	 * @param policy what to do with a task added while the queue is full
+	 */
+	public WorkQueue(int threads, int capacity, Policy policy) {
+		this(threads, false, capacity, policy);
+	}
+
+	/**
+	 * Starts a work queue that runs each task on a new virtual thread.
+	 *
+	 * @return a work queue backed by virtual threads
+	 */
+	public static WorkQueue ofVirtual() {
+		return ofVirtual(0, Policy.BLOCK);
+	}
+
+	/**
+	 * Starts a work queue that runs each task on a new virtual thread, with a limit
+	 * on the number of tasks (and so virtual threads) at once.
+	 *
+	 * @param capacity the most tasks that may be waiting or running at once, or 0 for no limit
+	 * @param policy what to do with a task added while the queue is full
+	 * @return a work queue backed by virtual threads
+	 */
+	public static WorkQueue ofVirtual(int capacity, Policy policy) {
+		return new WorkQueue(0, true, capacity, policy);
+	}
+
+	/**
+	 * Starts a work queue with the specified number of threads.
+	 *
+	 * @param threads number of worker threads
+	 * @param virtual whether to run each task on a new virtual thread instead
+	 * @param capacity the most tasks that may be waiting or running at once, or 0 for no limit
+	 * @param policy what to do with a task added while the queue is full
+	 */
+	private WorkQueue(int threads, boolean virtual, int capacity, Policy policy) {
+		this.virtual = virtual;
+		this.capacity = Math.max(0, capacity);
+		this.policy = policy;
+		this.full = new LongAdder();
+		this.submissions = new ConcurrentLinkedQueue<>();
+		this.idle = new ConcurrentLinkedQueue<>();
 		this.workers = new Worker[threads];
 		this.shutdown = false;
-		this.pending = 0;
+		this.pending = new AtomicInteger();
+		this.groups = new AtomicInteger();
 
-		// start the threads so they are waiting in the background
+		// create every worker before starting any so they can steal from each other
 		for (int i = 0; i < threads; i++) {
 			workers[i] = new Worker();
-			workers[i].start();
+		}
+
+		// start the threads so they are waiting in the background
+		for (Worker worker : workers) {
+			worker.start();
 		}
 	}
 
 	/**
 	 * Adds a work (or task) request to the queue. A worker thread will process this
 	 * request when available. Increments the amount of pending work whenever one is added to the queue.
+	 * If the queue is full, the task is handled by the {@link Policy} of the queue instead.
 	 *
 	 * @param task work request (in the form of a {@link Runnable} object)
+	 * @throws RejectedExecutionException if the queue is shut down, if the queue is full and
+	 *   its policy is to reject, or the thread is interrupted while waiting for room
 	 */
 	public void execute(Runnable task) {
-		incrementPending();
-		synchronized (tasks) {
-			tasks.addLast(task);
-			tasks.notifyAll();
+		if (shutdown) {
+			// nothing would ever run the task, so anyone waiting on it would wait forever
+			throw new RejectedExecutionException("Work queue is shut down");
+		}
+
+		if (!reserve()) {
+			// the queue is full, so the adding thread runs the task itself
+			pending.incrementAndGet();
+			run(task);
+			return;
+		}
+
+		if (shutdown) {
+			// shut down after the check above but before the task was queued, so undo its count
+			decrementPending();
+			throw new RejectedExecutionException("Work queue is shut down");
+		}
+
+		if (virtual) {
+			Thread.ofVirtual().start(() -> {
+				CURRENT.set(this);
+				run(task);
+			});
+			return;
+		}
+
+		if (Thread.currentThread() instanceof Worker worker && worker.queue() == this) {
+			worker.tasks.addLast(task);
+		}
+		else {
+			submissions.add(task);
+
+			// a worker exiting after a shutdown may have already discarded the submissions,
+			// so take the task back if no worker has it yet
+			if (shutdown && submissions.remove(task)) {
+				decrementPending();
+				throw new RejectedExecutionException("Work queue is shut down");
+			}
+		}
+
+		Worker parked = idle.poll();
+		if (parked != null) {
+			LockSupport.unpark(parked);
 		}
 	}
 
 	/**
-	 * Increments the pending variable
+	 * Counts a new pending task if there is room for it, waiting for room if the
+	 * policy is to block.
+	 *
+	 * @return true if the task was counted, or false if the adding thread should run it instead
+	 * @throws RejectedExecutionException if the queue is full and its policy is to reject,
+	 *   or the thread is interrupted while waiting for room
 	 */
-	private synchronized void incrementPending() {
-		pending++;
+	private boolean reserve() {
+		if (capacity == 0) {
+			pending.incrementAndGet();
+			return true;
+		}
+
+		if (tryReserve()) {
+			return true;
+		}
+
+		full.increment();
+		log.trace("Work queue full (capacity: {}, policy: {})", capacity, policy);
+
+		if (policy == Policy.REJECT) {
+			throw new RejectedExecutionException("Work queue is full (capacity: " + capacity + ")");
+		}
+
+		if (policy == Policy.CALLER_RUNS || CURRENT.get() == this) {
+			return false;
+		}
+
+		synchronized (this) {
+			try {
+				while (!tryReserve()) {
+					this.wait();
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException("Interrupted while waiting for room in the work queue", e);
+			}
+		}
+		return true;
 	}
 
 	/**
-	 * Waits for all pending work (or tasks) to be finished. Does not terminate the
-	 * worker threads so that the work queue can continue to be used.
+	 * Counts a new pending task if the queue is not full.
+	 *
+	 * @return true if the task was counted
+	 */
+	private boolean tryReserve() {
+		int count = pending.get();
+
+		while (count < capacity) {
+			if (pending.compareAndSet(count, count + 1)) {
+				return true;
+			}
+			count = pending.get();
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of tasks added while the queue was full, however they
+	 * were then handled.
+	 *
+	 * @return the number of times the queue was full
+	 */
+	public long getFullCount() {
+		return full.sum();
+	}
+
+	/**
+	 * Returns the most tasks that may be waiting or running at once.
+	 *
+	 * @return the capacity, or 0 if there is no limit
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Adds a task that returns a result to the queue. Any exception the task
+	 * throws is kept by the returned future instead of being logged.
+	 *
+	 * @param <T> the type of the result
+	 * @param task the task to run
+	 * @return a future for the result of the task, which may be used to cancel it before it starts
+	 * @throws RejectedExecutionException if the queue does not accept the task
+	 *
+	 * @see #execute(Runnable)
+	 */
+	public <T> Future<T> submit(Callable<T> task) {
+		FutureTask<T> future = new FutureTask<>(task);
+		execute(future);
+		return future;
+	}
+
+	/**
+	 * Creates a new group of tasks that run on this queue.
+	 *
+	 * @return a new empty task group
+	 * @see #group(String)
+	 */
+	public TaskGroup group() {
+		return group("Group" + groups.incrementAndGet());
+	}
+
+	/**
+	 * Creates a new named group of tasks that run on this queue.
+	 *
+	 * @param name the name of the group, used when logging
+	 * @return a new empty task group
+	 */
+	public TaskGroup group(String name) {
+		return new TaskGroup(name);
+	}
+
+	/**
+	 * Waits for all pending work (or tasks) to be finished, including the tasks of
+	 * every group. Does not terminate the worker threads so that the work queue can
+	 * continue to be used.
+	 *
+	 * @see TaskGroup#finish()
 	 */
 	public synchronized void finish() {
 		try {
-	 		while (pending > 0) {
-				log.trace("Waiting to finish (pending: {})", pending);
+	 		while (pending.get() > 0) {
+				log.trace("Waiting to finish (pending: {})", pending.get());
 				this.wait();
 			}
 		}
@@ -96,16 +397,38 @@ public class WorkQueue {
 		}
 	}
 
+	/**
+	 * Runs a task, reporting any exception it throws, and marks it as no longer pending.
+	 *
+	 * @param task the task to run
+	 */
+	private void run(Runnable task) {
+		try {
+			task.run();
+		}
+		catch (RuntimeException e) {
+			// catch runtime exceptions to avoid leaking threads
+			System.err.printf("Error: %s encountered an exception while running.%n", Thread.currentThread().getName());
+			log.catching(Level.ERROR, e);
+		}
+		finally {
+			// an error still ends the task, so anyone waiting on the queue is not stuck
+			decrementPending();
+		}
+	}
+
 	/**
 	 * Safely decrements the shared pending variable, and wakes up any threads
-	 * waiting for work to be completed.
+	 * waiting for work to be completed or for room in a full queue.
 	 */
-	private synchronized void decrementPending() {
-		assert pending > 0;
-		pending--;
+	private void decrementPending() {
+		int remaining = pending.decrementAndGet();
+		assert remaining >= 0;
 
-		if (pending == 0) {
-			this.notifyAll();
+		if (remaining == 0 || remaining == capacity - 1) {
+			synchronized (this) {
+				this.notifyAll();
+			}
 		}
 	}
 
@@ -132,26 +455,212 @@ public class WorkQueue {
 
 	/**
 	 * Asks the queue to shutdown. Any unprocessed work (or tasks) will not be
-	 * finished, but threads in-progress will not be interrupted.
+	 * finished and is discarded, but threads in-progress will not be interrupted.
+	 * Any work added after this call is rejected.
 	 */
 	public void shutdown() {
 		// safe to do unsynchronized due to volatile keyword
 		shutdown = true;
 
-		synchronized (tasks) {
-			tasks.notifyAll();
+		for (Worker worker : workers) {
+			LockSupport.unpark(worker);
 		}
 	}
 
 	/**
 	 * Returns the number of worker threads being used by the work queue.
 	 *
-	 * @return number of worker threads
+	 * @return number of worker threads, or 0 if tasks run on virtual threads
 	 */
 	public int size() {
 		return workers.length;
 	}
 
+	/**
+	 * A set of tasks run on the work queue that can be waited on and cancelled
+	 * together. The first exception thrown by a task cancels the group, so any of
+	 * its tasks that have not started yet are skipped, and {@link #await()} rethrows
+	 * that exception with any later ones added as suppressed. Tasks in progress are
+	 * not interrupted. Tasks may add more tasks to their own group.
+	 *
+	 * <p>
+	 * A group only counts its own tasks, so waiting on it is not held up by other
+	 * work on the queue. Closing a group makes it a scope: any tasks still pending
+	 * are cancelled and waited on, so none outlive the try-with-resources block
+	 * that opened it, even when the block exits with an exception.
+	 */
+	public class TaskGroup implements AutoCloseable {
+
+		/** The name of this group, used when logging. */
+		private final String name;
+
+		/** The number of tasks in this group that have not finished. */
+		private final AtomicInteger pending;
+
+		/** Whether tasks in this group that have not started should be skipped. */
+		private volatile boolean cancelled;
+
+		/** The first exception thrown by a task in this group, with any later ones suppressed. */
+		private RuntimeException failure;
+
+		/**
+		 * Initializes an empty task group.
+		 *
+		 * @param name the name of the group
+		 */
+		private TaskGroup(String name) {
+			this.name = name;
+			this.pending = new AtomicInteger();
+			this.cancelled = false;
+			this.failure = null;
+		}
+
+		/**
+		 * Adds a task to this group and to the work queue. The task is skipped if the
+		 * group is cancelled before it starts.
+		 *
+		 * @param task the task to run
+		 * @throws RejectedExecutionException if the work queue rejects the task
+		 *
+		 * @see WorkQueue#execute(Runnable)
+		 */
+		public void execute(Runnable task) {
+			pending.incrementAndGet();
+
+			try {
+				WorkQueue.this.execute(() -> {
+					try {
+						if (!cancelled) {
+							task.run();
+						}
+					}
+					catch (RuntimeException e) {
+						fail(e);
+					}
+					finally {
+						decrementPending();
+					}
+				});
+			}
+			catch (RejectedExecutionException e) {
+				decrementPending();
+				throw e;
+			}
+		}
+
+		/**
+		 * Marks a task of this group as finished, waking up any threads waiting on
+		 * the group once none are left.
+		 */
+		private void decrementPending() {
+			if (pending.decrementAndGet() == 0) {
+				synchronized (this) {
+					this.notifyAll();
+				}
+			}
+		}
+
+		/**
+		 * Records an exception thrown by a task and cancels the rest of the group.
+		 *
+		 * @param e the exception thrown
+		 */
+		private synchronized void fail(RuntimeException e) {
+			log.debug("Task in {} failed, cancelling the group", name, e);
+
+			if (failure == null) {
+				failure = e;
+			}
+			else if (failure != e) {
+				failure.addSuppressed(e);
+			}
+			cancelled = true;
+		}
+
+		/**
+		 * Skips every task in this group that has not started yet.
+		 */
+		public void cancel() {
+			cancelled = true;
+		}
+
+		/**
+		 * Returns whether this group was cancelled, either directly or by a failed task.
+		 *
+		 * @return true if this group was cancelled
+		 */
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		/**
+		 * Waits for every task in this group to finish or be skipped, without
+		 * checking whether any failed.
+		 */
+		public synchronized void finish() {
+			try {
+				while (pending.get() > 0) {
+					log.trace("Waiting to finish {} (pending: {})", name, pending.get());
+					this.wait();
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * Waits for every task in this group to finish or be skipped, then rethrows
+		 * the first exception thrown by any of them.
+		 *
+		 * @throws RuntimeException the first exception thrown by a task in this group
+		 */
+		public void await() {
+			finish();
+
+			synchronized (this) {
+				if (failure != null) {
+					throw failure;
+				}
+			}
+		}
+
+		/**
+		 * Cancels any tasks in this group that have not started and waits for the
+		 * rest to finish. Does nothing more if every task already finished.
+		 */
+		@Override
+		public void close() {
+			if (pending.get() > 0) {
+				cancel();
+				finish();
+			}
+		}
+
+		/**
+		 * Returns the name of this group.
+		 *
+		 * @return the name of this group
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns the number of tasks in this group that have not finished.
+		 *
+		 * @return the number of pending tasks
+		 */
+		public int pending() {
+			return pending.get();
+		}
+
+		@Override
+		public String toString() {
+			return name + "[pending=" + pending.get() + ", cancelled=" + cancelled + "]";
+		}
+	}
+
 	/**
 	 * Waits until work (or a task) is available in the work queue. When work is
 	 * found, will remove the work from the queue and run it.
@@ -163,46 +672,105 @@ public class WorkQueue {
 	 */
 	private class Worker extends Thread {
 
+		/** The tasks added by this worker, run newest first by this worker and stolen oldest first by others. */
+		private final ConcurrentLinkedDeque<Runnable> tasks;
+
 		/**
 		 * Initializes a worker thread with a custom name.
 		 */
 		public Worker() {
+			this.tasks = new ConcurrentLinkedDeque<>();
 			setName("Worker" + getName());
 		}
 
+		/**
+		 * Returns the work queue this worker belongs to.
+		 *
+		 * @return the work queue of this worker
+		 */
+		private WorkQueue queue() {
+			return WorkQueue.this;
+		}
+
+		/**
+		 * Finds the next task to run from this worker's deque, the submissions, or
+		 * another worker's deque, in that order.
+		 *
+		 * @return the next task or null if there is no work anywhere
+		 */
+		private Runnable findTask() {
+			Runnable task = tasks.pollLast();
+
+			if (task == null) {
+				task = submissions.poll();
+			}
+
+			if (task == null && workers.length > 1) {
+				int start = ThreadLocalRandom.current().nextInt(workers.length);
+
+				for (int i = 0; i < workers.length && task == null; i++) {
+					Worker victim = workers[(start + i) % workers.length];
+					if (victim != this) {
+						task = victim.tasks.pollFirst();
+					}
+				}
+			}
+			return task;
+		}
+
+		/**
+		 * Discards the tasks left in this worker's deque and in the submissions,
+		 * which will never run once the queue is shut down, so waiting on the
+		 * queue does not wait for them forever.
+		 */
+		private void discard() {
+			Runnable task = tasks.pollFirst();
+			while (task != null) {
+				decrementPending();
+				task = tasks.pollFirst();
+			}
+
+			task = submissions.poll();
+			while (task != null) {
+				decrementPending();
+				task = submissions.poll();
+			}
+		}
+
 		@Override
 		public void run() {
 			log.debug("Started {}", "Worker" + this.getName());
-			Runnable task = null;
+			CURRENT.set(WorkQueue.this);
 
-			try {
-				while (true) {
-					synchronized (tasks) {
-						while (tasks.isEmpty() && !shutdown) {
-							tasks.wait();
+			while (!shutdown) {
+				Runnable task = findTask();
+
+				if (task == null) {
+					// check again after going idle so work added in between is not missed
+					idle.add(this);
+					task = findTask();
+
+					if (task == null) {
+						if (!shutdown) {
+							LockSupport.park(this);
 						}
+						idle.remove(this);
 
-						if (shutdown) {
+						if (isInterrupted()) {
+							// causes early termination of worker threads
+							System.err.printf("Warning: %s interrupted while waiting.%n", this.getName());
 							break;
 						}
-						task = tasks.removeFirst();
+						continue;
 					}
-					try {
-						task.run();
-					}
-					catch (RuntimeException e) {
-						// catch runtime exceptions to avoid leaking threads
-						System.err.printf("Error: %s encountered an exception while running.%n", this.getName());
-						log.catching(Level.ERROR, e);
-					}
-					decrementPending();
+					idle.remove(this);
 				}
+
+				WorkQueue.this.run(task);
 			}
-			catch (InterruptedException e) {
-				// causes early termination of worker threads
-				System.err.printf("Warning: %s interrupted while waiting.%n", this.getName());
-				log.catching(Level.WARN, e);
-				Thread.currentThread().interrupt();
+
+			if (shutdown) {
+				discard();
 			}
 			log.debug("Finished {}","Worker" + this.getName());
 		}
@@ -0,0 +1,147 @@
+package edu.usfca.cs272;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how the throughput of a {@link WorkQueue} scales with its number of
+ * worker threads, from one thread up to every available core. Each run spreads
+ * a fixed amount of CPU-bound work over a tree of tasks, where every task adds
+ * its children to the queue from its worker thread, so the work reaches the
+ * other workers by stealing rather than through the shared submission queue.
+ *
+ * <p>
+ * Run it with the number of leaf tasks per run as an optional argument:
+ *
+ * <pre>
+ * java -cp target/classes edu.usfca.cs272.WorkQueueBenchmark [tasks]
+ * </pre>
+ *
+ * The median time of several runs is reported for each number of threads along
+ * with its speedup over one thread. The speedup is only meaningful on a machine
+ * with more than one core that is otherwise idle.
+ *
+ * @author Katherine Le
+ *
+ */
+public class WorkQueueBenchmark {
+
+	/** The default number of leaf tasks in each run. */
+	public static final int DEFAULT_TASKS = 1 << 16;
+
+	/** The number of rounds of hashing each leaf task does, which takes a few microseconds. */
+	public static final int WORK = 2_000;
+
+	/** The number of runs done before measuring, to let the JIT compiler warm up. */
+	public static final int WARMUP = 3;
+
+	/** The number of measured runs for each number of threads. */
+	public static final int RUNS = 7;
+
+	/** The sum of the results of every leaf task, so the work cannot be optimized away. */
+	private static final LongAdder sink = new LongAdder();
+
+	/**
+	 * Runs the benchmark for 1, 2, 4, and so on threads up to the number of
+	 * available processors.
+	 *
+	 * @param args the number of leaf tasks per run, if given
+	 */
+	public static void main(String[] args) {
+		int tasks = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_TASKS;
+		int cores = Runtime.getRuntime().availableProcessors();
+
+		System.out.printf("%d leaf tasks per run, %d available processors%n", tasks, cores);
+		System.out.printf("%8s %12s %14s %8s %11s%n", "threads", "median ms", "tasks/sec", "speedup", "efficiency");
+
+		double baseline = 0;
+		for (int threads = 1; threads <= cores; threads = threads == cores ? cores + 1 : Math.min(threads * 2, cores)) {
+			double millis = measure(threads, tasks);
+			if (threads == 1) {
+				baseline = millis;
+			}
+
+			double speedup = baseline / millis;
+			System.out.printf("%8d %12.1f %14.0f %7.2fx %10.0f%%%n",
+					threads, millis, tasks / millis * 1000, speedup, speedup / threads * 100);
+		}
+		System.out.printf("(checksum %d)%n", sink.sum());
+	}
+
+	/**
+	 * Returns the median time to run every task on a work queue.
+	 *
+	 * @param threads the number of worker threads
+	 * @param tasks the number of leaf tasks per run
+	 * @return the median time of a run in milliseconds
+	 */
+	private static double measure(int threads, int tasks) {
+		WorkQueue queue = new WorkQueue(threads);
+		double[] times = new double[RUNS];
+
+		try {
+			for (int run = 0; run < WARMUP + RUNS; run++) {
+				long start = System.nanoTime();
+				queue.execute(new Task(queue, 0, tasks));
+				queue.finish();
+				long elapsed = System.nanoTime() - start;
+
+				if (run >= WARMUP) {
+					times[run - WARMUP] = elapsed / 1e6;
+				}
+			}
+		}
+		finally {
+			queue.join();
+		}
+
+		Arrays.sort(times);
+		return times[RUNS / 2];
+	}
+
+	/**
+	 * A task covering a range of leaf tasks. A range of more than one leaf splits
+	 * itself in half and adds a task for each half, and a single leaf does the work.
+	 */
+	private static class Task implements Runnable {
+
+		/**The work queue to add the halves to*/
+		private final WorkQueue queue;
+
+		/**The first leaf in the range*/
+		private final int start;
+
+		/**The leaf just after the range*/
+		private final int end;
+
+		/**
+		 * Constructor for initializing a new task.
+		 *
+		 * @param queue the work queue to add the halves to
+		 * @param start the first leaf in the range
+		 * @param end the leaf just after the range
+		 */
+		public Task(WorkQueue queue, int start, int end) {
+			this.queue = queue;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public void run() {
+			if (end - start > 1) {
+				int middle = (start + end) >>> 1;
+				queue.execute(new Task(queue, start, middle));
+				queue.execute(new Task(queue, middle, end));
+				return;
+			}
+
+			long hash = start;
+			for (int i = 0; i < WORK; i++) {
+				hash = hash * 0x9E3779B97F4A7C15L + i;
+				hash ^= hash >>> 29;
+			}
+			sink.add(hash);
+		}
+	}
+}